@@ -0,0 +1,35 @@
+package net.ys.bean;
+
+/**
+ * swift认证结果
+ */
+public class AuthToken {
+
+    private String storageUrl;//存储地址
+
+    private String token;//X-Auth-Token
+
+    private long expiresTime;//过期时间点(毫秒),0表示未知
+
+    public AuthToken(String storageUrl, String token, long expiresTime) {
+        this.storageUrl = storageUrl;
+        this.token = token;
+        this.expiresTime = expiresTime;
+    }
+
+    public String getStorageUrl() {
+        return storageUrl;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public long getExpiresTime() {
+        return expiresTime;
+    }
+
+    public boolean isExpired() {
+        return expiresTime > 0 && System.currentTimeMillis() >= expiresTime;
+    }
+}
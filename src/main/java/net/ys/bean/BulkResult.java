@@ -0,0 +1,52 @@
+package net.ys.bean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量删除结果
+ */
+public class BulkResult {
+
+    private int deleted;//删除成功数
+
+    private int notFound;//对象不存在数
+
+    private final List<String> failed = new ArrayList<>();//删除失败的路径(容器/对象)
+
+    public BulkResult() {
+    }
+
+    public BulkResult(int deleted, int notFound, List<String> failed) {
+        this.deleted = deleted;
+        this.notFound = notFound;
+        this.failed.addAll(failed);
+    }
+
+    /**
+     * 合并其他批次的结果
+     *
+     * @param other
+     */
+    public synchronized void add(BulkResult other) {
+        deleted += other.deleted;
+        notFound += other.notFound;
+        failed.addAll(other.failed);
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public int getNotFound() {
+        return notFound;
+    }
+
+    public List<String> getFailed() {
+        return failed;
+    }
+
+    public boolean isSuccess() {
+        return failed.isEmpty();
+    }
+}
@@ -0,0 +1,115 @@
+package net.ys.bean;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 本地缓存的swift对象,小对象存内存,大对象存磁盘
+ */
+public class CachedObject {
+
+    private String eTag;
+
+    private String contentType;
+
+    private String lastModified;
+
+    private long length;
+
+    private byte[] data;//内存缓存内容
+
+    private File file;//磁盘缓存文件
+
+    private String codec;//压缩存储时的编码,如gzip,未压缩为null
+
+    private long originalLength = -1;//压缩前长度,未知为-1
+
+    private volatile long validatedTime;//最近一次与swift确认一致的时间
+
+    private int refs = 1;//缓存自身持有一个引用,读取时另外持有,最后一个引用释放时删除磁盘文件
+
+    public CachedObject(String eTag, String contentType, String lastModified, long length, byte[] data, File file) {
+        this.eTag = eTag;
+        this.contentType = contentType;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.data = data;
+        this.file = file;
+        this.validatedTime = System.currentTimeMillis();
+    }
+
+    public CachedObject(String eTag, String contentType, String lastModified, long length, byte[] data, File file, String codec, long originalLength) {
+        this(eTag, contentType, lastModified, length, data, file);
+        this.codec = codec;
+        this.originalLength = originalLength;
+    }
+
+    public InputStream openStream() throws IOException {
+        return data != null ? new ByteArrayInputStream(data) : new FileInputStream(file);
+    }
+
+    /**
+     * 读取前增加引用,防止读取期间被淘汰的文件被删除
+     *
+     * @return 已被淘汰且文件已删除返回false
+     */
+    public synchronized boolean retain() {
+        if (refs == 0) {
+            return false;
+        }
+        refs++;
+        return true;
+    }
+
+    /**
+     * 释放引用,最后一个引用释放时删除磁盘文件
+     */
+    public synchronized void release() {
+        if (refs > 0 && --refs == 0 && file != null) {
+            file.delete();
+        }
+    }
+
+    public boolean inMemory() {
+        return data != null;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public long getOriginalLength() {
+        return originalLength;
+    }
+
+    public long getValidatedTime() {
+        return validatedTime;
+    }
+
+    public void setValidatedTime(long validatedTime) {
+        this.validatedTime = validatedTime;
+    }
+}
@@ -0,0 +1,56 @@
+package net.ys.bean;
+
+/**
+ * HEAD得到的对象信息
+ */
+public class ObjectInfo {
+
+    private long length;
+
+    private String eTag;
+
+    private String lastModified;
+
+    private String contentType;
+
+    private boolean slo;//是否为SLO大对象
+
+    private String codec;//压缩存储时的编码,如gzip,未压缩为null
+
+    public ObjectInfo(long length, String eTag, String lastModified, String contentType, boolean slo) {
+        this.length = length;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.contentType = contentType;
+        this.slo = slo;
+    }
+
+    public ObjectInfo(long length, String eTag, String lastModified, String contentType, boolean slo, String codec) {
+        this(length, eTag, lastModified, contentType, slo);
+        this.codec = codec;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public boolean isSlo() {
+        return slo;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+}
@@ -12,10 +12,15 @@ public class SegFile {
 
     private long startPoint;//起始点
 
-    public SegFile(String tempName, int index, long startPoint) {
+    private long length;//分片长度
+
+    private volatile String eTag;//已上传分片的ETAG,未上传为null
+
+    public SegFile(String tempName, int index, long startPoint, long length) {
         this.tempName = tempName;
         this.index = index;
         this.startPoint = startPoint;
+        this.length = length;
     }
 
     public int getIndex() {
@@ -29,4 +34,20 @@ public class SegFile {
     public String getTempName() {
         return tempName;
     }
+
+    public void setTempName(String tempName) {
+        this.tempName = tempName;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public void setETag(String eTag) {
+        this.eTag = eTag;
+    }
 }
@@ -0,0 +1,31 @@
+package net.ys.bean;
+
+/**
+ * 账户列表中的容器
+ */
+public class SwiftContainer {
+
+    private String name;
+
+    private long count;//对象数
+
+    private long size;//字节数
+
+    public SwiftContainer(String name, long count, long size) {
+        this.name = name;
+        this.count = count;
+        this.size = size;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
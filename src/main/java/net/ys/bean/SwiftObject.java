@@ -0,0 +1,52 @@
+package net.ys.bean;
+
+/**
+ * 容器列表中的对象, 指定delimiter时也可能是伪目录(dir=true, 仅有name)
+ */
+public class SwiftObject {
+
+    private String name;//对象名,伪目录时为目录前缀
+
+    private long size;//字节数
+
+    private String eTag;//内容MD5, SLO清单为清单本身的MD5
+
+    private String lastModified;//最后修改时间, 如2019-08-20T08:15:30.123450
+
+    private String contentType;
+
+    private boolean dir;//是否为delimiter归并的伪目录
+
+    public SwiftObject(String name, long size, String eTag, String lastModified, String contentType, boolean dir) {
+        this.name = name;
+        this.size = size;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.contentType = contentType;
+        this.dir = dir;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public boolean isDir() {
+        return dir;
+    }
+}
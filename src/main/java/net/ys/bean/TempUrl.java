@@ -0,0 +1,31 @@
+package net.ys.bean;
+
+/**
+ * 签名后的swift临时地址,客户端凭此直接访问swift
+ */
+public class TempUrl {
+
+    private String method;//允许的请求方法
+
+    private String url;
+
+    private long expires;//过期时间点(秒)
+
+    public TempUrl(String method, String url, long expires) {
+        this.method = method;
+        this.url = url;
+        this.expires = expires;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getExpires() {
+        return expires;
+    }
+}
@@ -0,0 +1,64 @@
+package net.ys.bean;
+
+import java.util.List;
+
+/**
+ * 可续传的分片上传会话
+ */
+public class UploadSession {
+
+    private String id;//会话ID
+
+    private String srcPath;//源文件
+
+    private long srcLength;//源文件长度,续传时校验源文件未变化
+
+    private long srcModified;//源文件修改时间
+
+    private String storeName;//合并后的存储全名
+
+    private List<SegFile> segFiles;//分片及已上传分片的ETAG
+
+    public UploadSession(String id, String srcPath, long srcLength, long srcModified, String storeName, List<SegFile> segFiles) {
+        this.id = id;
+        this.srcPath = srcPath;
+        this.srcLength = srcLength;
+        this.srcModified = srcModified;
+        this.storeName = storeName;
+        this.segFiles = segFiles;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSrcPath() {
+        return srcPath;
+    }
+
+    public long getSrcLength() {
+        return srcLength;
+    }
+
+    public long getSrcModified() {
+        return srcModified;
+    }
+
+    public String getStoreName() {
+        return storeName;
+    }
+
+    public List<SegFile> getSegFiles() {
+        return segFiles;
+    }
+
+    public int getUploadedCount() {
+        int count = 0;
+        for (SegFile segFile : segFiles) {
+            if (segFile.getETag() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,42 @@
+package net.ys.config;
+
+import net.ys.util.HttpClientPool;
+import net.ys.util.SwiftUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Swift访问使用的连接池
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Value("${swift.http.maxTotal:200}")
+    private int maxTotal;
+
+    @Value("${swift.http.maxPerRoute:50}")
+    private int maxPerRoute;
+
+    @Value("${swift.http.connectTimeout:5000}")
+    private int connectTimeout;
+
+    @Value("${swift.http.socketTimeout:60000}")
+    private int socketTimeout;
+
+    @Value("${swift.http.requestTimeout:10000}")
+    private int requestTimeout;
+
+    @Value("${swift.http.keepAlive:30000}")
+    private long keepAlive;
+
+    @Value("${swift.http.idleTimeout:60000}")
+    private long idleTimeout;
+
+    @Bean(destroyMethod = "close")
+    public HttpClientPool httpClientPool() {
+        HttpClientPool pool = new HttpClientPool(maxTotal, maxPerRoute, connectTimeout, socketTimeout, requestTimeout, keepAlive, idleTimeout);
+        SwiftUtil.setHttpClientPool(pool);//SwiftUtil与Spring共用同一连接池
+        return pool;
+    }
+}
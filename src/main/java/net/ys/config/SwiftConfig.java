@@ -0,0 +1,66 @@
+package net.ys.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import net.ys.util.EndpointBalancer;
+import net.ys.util.HttpClientPool;
+import net.ys.util.SwiftMetrics;
+import net.ys.util.SwiftUtil;
+import net.ys.util.TokenManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Swift认证、代理节点均衡与指标配置
+ */
+@Configuration
+public class SwiftConfig {
+
+    @Value("${swift.url}")
+    private String swiftUrl;
+
+    @Value("${swift.user}")
+    private String swiftUser;
+
+    @Value("${swift.pass}")
+    private String swiftPass;
+
+    @Value("${swift.tokenRefreshBefore:60000}")
+    private long tokenRefreshBefore;
+
+    @Value("${swift.endpoints:}")
+    private String endpoints;
+
+    @Value("${swift.balance.failThreshold:3}")
+    private int failThreshold;
+
+    @Value("${swift.balance.downTime:10000}")
+    private long downTime;
+
+    @Value("${swift.balance.checkInterval:5000}")
+    private long checkInterval;
+
+    @Bean
+    public SwiftMetrics swiftMetrics(MeterRegistry meterRegistry, HttpClientPool httpClientPool) {
+        SwiftMetrics swiftMetrics = new SwiftMetrics(meterRegistry);
+        swiftMetrics.bindPool(httpClientPool);
+        return swiftMetrics;
+    }
+
+    @Bean(destroyMethod = "close")
+    public TokenManager tokenManager(HttpClientPool httpClientPool, SwiftMetrics swiftMetrics) {
+        TokenManager tokenManager = new TokenManager(httpClientPool, swiftUrl, swiftUser, swiftPass, tokenRefreshBefore);
+        tokenManager.setMetrics(swiftMetrics);
+        EndpointBalancer balancer = EndpointBalancer.create(swiftUrl, endpoints, httpClientPool, failThreshold, downTime);
+        if (balancer != null) {
+            if (checkInterval > 0) {
+                balancer.startHealthCheck(checkInterval);
+            }
+            swiftMetrics.bindEndpoints(balancer);
+            tokenManager.setBalancer(balancer);
+        }
+        tokenManager.start();
+        SwiftUtil.setTokenManager(tokenManager);//SwiftUtil与Spring共用同一token
+        return tokenManager;
+    }
+}
@@ -0,0 +1,38 @@
+package net.ys.config;
+
+import net.ys.util.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 虚拟线程模式: Tomcat每个请求一个虚拟线程,上传下载阻塞时不占用平台线程,并发请求数由server.tomcat.max-connections限制
+ */
+@Configuration
+@ConditionalOnProperty(name = "swift.virtualThreads", havingValue = "true")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class VirtualThreadConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadCustomizer() {
+        return factory -> {
+            if (!VirtualThreads.isSupported()) {
+                LOGGER.warn("swift.virtualThreads is enabled but JDK {} has no virtual threads, using platform threads", System.getProperty("java.version"));
+                return;
+            }
+            factory.addConnectorCustomizers(connector -> {
+                ExecutorService executor = VirtualThreads.newPerTaskExecutor("swift-http-");
+                connector.getProtocolHandler().setExecutor(executor);
+            });
+        };
+    }
+}
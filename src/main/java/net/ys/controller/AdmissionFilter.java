@@ -0,0 +1,203 @@
+package net.ys.controller;
+
+import net.sf.json.JSONObject;
+import net.ys.service.AdmissionControl;
+import net.ys.service.UploadService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.Resource;
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 上传下载接口的准入控制: 在解析请求体之前获取许可,超出并发且排队已满时直接返回429,
+ * 不读取请求体;上传请求体与下载响应按客户端与容器限速
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)//在解析表单等读取请求体的过滤器之前
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    @Resource
+    private AdmissionControl admissionControl;
+
+    @Resource
+    private UploadService uploadService;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !admissionControl.isEnabled() || type(request) == null;
+    }
+
+    private String type(HttpServletRequest request) {
+        switch (request.getServletPath()) {
+            case "/upload":
+            case "/upload/stream":
+                return AdmissionControl.TYPE_UPLOAD;
+            case "/download":
+                return AdmissionControl.TYPE_DOWNLOAD;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        String type = type(request);
+        AdmissionControl.Permit permit;
+        try {
+            permit = admissionControl.acquire(type);
+        } catch (AdmissionControl.RejectedException e) {
+            response.setStatus(TOO_MANY_REQUESTS);
+            response.setHeader("Retry-After", String.valueOf(e.getRetryAfter()));
+            response.setContentType("application/json");
+            JSONObject result = new JSONObject();
+            result.put("error", e.getMessage());
+            response.getWriter().write(result.toString());
+            return;
+        }
+        try {
+            if (AdmissionControl.TYPE_DOWNLOAD.equals(type)) {
+                response = new ThrottledResponse(response, request.getRemoteAddr(), uploadService.getContainer());
+            } else {
+                request = new ThrottledRequest(request, request.getRemoteAddr(), uploadService.getContainer());
+            }
+            chain.doFilter(request, response);
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * 请求体限速,读取请求体的速度即客户端上传的速度
+     */
+    private class ThrottledRequest extends HttpServletRequestWrapper {
+
+        private final String client;
+
+        private final String container;
+
+        private ServletInputStream inputStream;
+
+        ThrottledRequest(HttpServletRequest request, String client, String container) {
+            super(request);
+            this.client = client;
+            this.container = container;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                ServletInputStream raw = super.getInputStream();
+                InputStream throttled = admissionControl.throttle(raw, client, container);
+                inputStream = throttled == raw ? raw : new ServletInputStream() {
+                    @Override
+                    public boolean isFinished() {
+                        return raw.isFinished();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return raw.isReady();
+                    }
+
+                    @Override
+                    public void setReadListener(ReadListener readListener) {
+                        raw.setReadListener(readListener);
+                    }
+
+                    @Override
+                    public int read() throws IOException {
+                        return throttled.read();
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        return throttled.read(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        raw.close();
+                    }
+                };
+            }
+            return inputStream;
+        }
+    }
+
+    /**
+     * 响应体限速
+     */
+    private class ThrottledResponse extends HttpServletResponseWrapper {
+
+        private final String client;
+
+        private final String container;
+
+        private ServletOutputStream outputStream;
+
+        ThrottledResponse(HttpServletResponse response, String client, String container) {
+            super(response);
+            this.client = client;
+            this.container = container;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                ServletOutputStream raw = super.getOutputStream();
+                OutputStream throttled = admissionControl.throttle(raw, client, container);
+                outputStream = throttled == raw ? raw : new ServletOutputStream() {
+                    @Override
+                    public boolean isReady() {
+                        return raw.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        raw.setWriteListener(writeListener);
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        throttled.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        throttled.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        raw.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        raw.close();
+                    }
+                };
+            }
+            return outputStream;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package net.ys.controller;
+
+import net.sf.json.JSONObject;
+import net.ys.bean.BulkResult;
+import net.ys.service.BulkService;
+import net.ys.service.ObjectCache;
+import net.ys.service.UploadService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量删除接口
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class BulkController {
+
+    @Resource
+    private BulkService bulkService;
+
+    @Resource
+    private UploadService uploadService;
+
+    @Resource
+    private ObjectCache objectCache;
+
+    /**
+     * 批量删除容器内的对象
+     *
+     * @param container 容器,默认为上传容器
+     * @param body      对象名,每行一个
+     * @return
+     */
+    @PostMapping(value = "/bulk/delete", produces = "application/json")
+    @ResponseBody
+    public String delete(String container, @RequestBody String body) {
+        String containerName = container == null ? uploadService.getContainer() : container;
+        List<String> names = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            String name = line.trim();
+            if (!name.isEmpty()) {
+                names.add(name);
+                if (containerName.equals(uploadService.getContainer())) {
+                    objectCache.remove(name);
+                }
+            }
+        }
+        try {
+            return toJson(bulkService.delete(containerName, names)).toString();
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    /**
+     * 递归删除容器及其中全部对象
+     *
+     * @param container
+     * @return
+     */
+    @DeleteMapping(value = "/bulk/container", produces = "application/json")
+    @ResponseBody
+    public String deleteContainer(String container) {
+        try {
+            return toJson(bulkService.deleteContainer(container)).toString();
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    /**
+     * 删除大对象: SLO清单与其分片一并删除
+     *
+     * @param fileName
+     * @return
+     */
+    @DeleteMapping(value = "/bulk/object", produces = "application/json")
+    @ResponseBody
+    public String deleteLargeObject(String fileName) {
+        objectCache.remove(fileName);
+        try {
+            return toJson(bulkService.deleteLargeObject(uploadService.getContainer(), fileName)).toString();
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    private JSONObject toJson(BulkResult bulkResult) {
+        JSONObject result = new JSONObject();
+        result.put("result", bulkResult.isSuccess() ? "success" : "failed");
+        result.put("deleted", bulkResult.getDeleted());
+        result.put("not_found", bulkResult.getNotFound());
+        result.put("failed", bulkResult.getFailed());
+        return result;
+    }
+
+    private String error(Exception e) {
+        JSONObject result = new JSONObject();
+        result.put("result", "failed");
+        result.put("error", e.getMessage());
+        return result.toString();
+    }
+}
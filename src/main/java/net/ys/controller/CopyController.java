@@ -0,0 +1,99 @@
+package net.ys.controller;
+
+import net.sf.json.JSONObject;
+import net.ys.service.CopyService;
+import net.ys.service.ObjectCache;
+import net.ys.service.UploadService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.annotation.Resource;
+
+/**
+ * 复制/移动接口,由swift在服务端完成,移动大对象时只复制清单
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class CopyController {
+
+    @Resource
+    private CopyService copyService;
+
+    @Resource
+    private UploadService uploadService;
+
+    @Resource
+    private ObjectCache objectCache;
+
+    /**
+     * 复制对象
+     *
+     * @param fileName      源对象
+     * @param toName        目标对象
+     * @param fromContainer 源容器,默认为上传容器
+     * @param toContainer   目标容器,默认为上传容器
+     * @return
+     */
+    @PostMapping(value = "/copy", produces = "application/json")
+    @ResponseBody
+    public String copy(String fileName, String toName, String fromContainer, String toContainer) {
+        String src = fromContainer == null ? uploadService.getContainer() : fromContainer;
+        String dst = toContainer == null ? uploadService.getContainer() : toContainer;
+        try {
+            String eTag = copyService.copy(src, fileName, dst, toName);
+            remove(dst, toName);
+            return result(eTag, dst, toName);
+        } catch (Exception e) {
+            return error(e.getMessage());
+        }
+    }
+
+    /**
+     * 移动(改名)对象,大对象的分片不复制
+     *
+     * @param fileName      源对象
+     * @param toName        目标对象
+     * @param fromContainer 源容器,默认为上传容器
+     * @param toContainer   目标容器,默认为上传容器
+     * @return
+     */
+    @PostMapping(value = "/move", produces = "application/json")
+    @ResponseBody
+    public String move(String fileName, String toName, String fromContainer, String toContainer) {
+        String src = fromContainer == null ? uploadService.getContainer() : fromContainer;
+        String dst = toContainer == null ? uploadService.getContainer() : toContainer;
+        try {
+            String eTag = copyService.move(src, fileName, dst, toName);
+            remove(src, fileName);
+            remove(dst, toName);
+            return result(eTag, dst, toName);
+        } catch (Exception e) {
+            return error(e.getMessage());
+        }
+    }
+
+    private void remove(String container, String name) {
+        if (container.equals(uploadService.getContainer())) {
+            objectCache.remove(name);
+        }
+    }
+
+    private String result(String eTag, String container, String name) {
+        if (eTag == null) {
+            return error("not found");
+        }
+        JSONObject result = new JSONObject();
+        result.put("gen_file_name", name);
+        result.put("container", container);
+        result.put("etag", eTag);
+        return result.toString();
+    }
+
+    private String error(String message) {
+        JSONObject result = new JSONObject();
+        result.put("error", message);
+        return result.toString();
+    }
+}
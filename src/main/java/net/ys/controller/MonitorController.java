@@ -0,0 +1,70 @@
+package net.ys.controller;
+
+import net.sf.json.JSONObject;
+import net.ys.service.ObjectCache;
+import net.ys.service.SegmentCleaner;
+import net.ys.util.HttpClientPool;
+import org.apache.http.pool.PoolStats;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.annotation.Resource;
+
+/**
+ * 运行状态查看
+ */
+@Controller
+public class MonitorController {
+
+    @Resource
+    private HttpClientPool httpClientPool;
+
+    @Resource
+    private ObjectCache objectCache;
+
+    @Resource
+    private SegmentCleaner segmentCleaner;
+
+    /**
+     * 连接池统计
+     */
+    @GetMapping(value = "/monitor/pool", produces = "application/json")
+    @ResponseBody
+    public String pool() {
+        PoolStats stats = httpClientPool.getTotalStats();
+        JSONObject object = new JSONObject();
+        object.put("leased", stats.getLeased());
+        object.put("available", stats.getAvailable());
+        object.put("pending", stats.getPending());
+        object.put("max", stats.getMax());
+        return object.toString();
+    }
+
+    /**
+     * 下载缓存统计
+     */
+    @GetMapping(value = "/monitor/cache", produces = "application/json")
+    @ResponseBody
+    public String cache() {
+        JSONObject object = new JSONObject();
+        object.put("enabled", objectCache.isEnabled());
+        object.put("hits", objectCache.getHits());
+        object.put("revalidations", objectCache.getRevalidations());
+        object.put("misses", objectCache.getMisses());
+        object.put("memory_bytes", objectCache.getMemoryBytes());
+        object.put("disk_bytes", objectCache.getDiskBytes());
+        return object.toString();
+    }
+
+    /**
+     * 待清理分片数
+     */
+    @GetMapping(value = "/monitor/cleanup", produces = "application/json")
+    @ResponseBody
+    public String cleanup() {
+        JSONObject object = new JSONObject();
+        object.put("pending", segmentCleaner.getPending());
+        return object.toString();
+    }
+}
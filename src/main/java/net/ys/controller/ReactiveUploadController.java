@@ -0,0 +1,97 @@
+package net.ys.controller;
+
+import net.sf.json.JSONObject;
+import net.ys.service.ReactiveUploadService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Resource;
+
+/**
+ * 响应式上传下载接口,spring.main.web-application-type=reactive时启用,
+ * 传输全程不占用线程,少量事件循环线程即可支撑大量慢速连接
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUploadController {
+
+    private static final String[] DOWNLOAD_HEADERS = {"Content-Length", "Content-Type", "Content-Range", "Accept-Ranges", "ETag", "Last-Modified"};
+
+    @Resource
+    private ReactiveUploadService reactiveUploadService;
+
+    @GetMapping("/")
+    public String index() {
+        return "index";
+    }
+
+    /**
+     * 请求体直接转发到swift,超过阈值时边读边分片上传
+     *
+     * @param request
+     * @param fileName 原始文件名
+     * @return
+     */
+    @PutMapping(value = "/upload/stream", produces = "application/json")
+    @ResponseBody
+    public Mono<String> uploadStream(ServerHttpRequest request, String fileName) {
+        long start = System.currentTimeMillis();
+        String storeName = System.currentTimeMillis() + fileName.substring(fileName.lastIndexOf("."));
+        long length = request.getHeaders().getContentLength();
+        return reactiveUploadService.uploadAuto(request.getBody(), length, storeName)
+                .map(eTag -> {
+                    JSONObject result = new JSONObject();
+                    result.put("use_time", System.currentTimeMillis() - start);
+                    result.put("gen_file_name", storeName);
+                    result.put("container", reactiveUploadService.getContainer());
+                    result.put("etag", eTag);
+                    return result.toString();
+                })
+                .onErrorResume(e -> {
+                    JSONObject result = new JSONObject();
+                    result.put("error", e.getMessage());
+                    return Mono.just(result.toString());
+                });
+    }
+
+    @GetMapping("/download")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> download(ServerHttpRequest request, String fileName) {
+        HttpHeaders requestHeaders = request.getHeaders();
+        return reactiveUploadService.download(fileName, requestHeaders.getFirst("Range"), requestHeaders.getFirst("If-Range"))
+                .map(response -> {
+                    HttpHeaders headers = new HttpHeaders();
+                    HttpHeaders swiftHeaders = response.headers().asHttpHeaders();
+                    for (String name : DOWNLOAD_HEADERS) {
+                        String value = swiftHeaders.getFirst(name);
+                        if (value != null) {
+                            headers.set(name, value);
+                        }
+                    }
+                    headers.set("Content-Disposition", "attachment; filename=" + fileName);
+                    return ResponseEntity.status(response.rawStatusCode())
+                            .headers(headers)
+                            .body(response.bodyToFlux(DataBuffer.class));
+                });
+    }
+
+    @DeleteMapping(value = "/delete", produces = "application/json")
+    @ResponseBody
+    public Mono<String> delete(String fileName) {
+        return reactiveUploadService.delete(reactiveUploadService.getContainer(), fileName)
+                .map(code -> {
+                    JSONObject result = new JSONObject();
+                    result.put("code", code);
+                    return result.toString();
+                });
+    }
+}
@@ -0,0 +1,143 @@
+package net.ys.controller;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.bean.TempUrl;
+import net.ys.service.TempUrlService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 直传接口: 签发swift临时地址,客户端直接上传下载,本服务只负责命名与SLO清单
+ */
+@Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class TempUrlController {
+
+    @Resource
+    private TempUrlService tempUrlService;
+
+    /**
+     * 上传地址,客户端以PUT方式上传
+     *
+     * @param fileName 原始文件名
+     * @param ttl      有效期(秒),默认swift.tempUrl.ttl
+     * @return
+     */
+    @GetMapping(value = "/tempurl/upload", produces = "application/json")
+    @ResponseBody
+    public String upload(String fileName, Long ttl) {
+        JSONObject result = new JSONObject();
+        try {
+            String storeName = storeName(fileName);
+            TempUrl tempUrl = tempUrlService.uploadUrl(storeName, ttl == null ? 0 : ttl);
+            result.put("gen_file_name", storeName);
+            result.put("container", tempUrlService.getContainer());
+            result.put("method", tempUrl.getMethod());
+            result.put("url", tempUrl.getUrl());
+            result.put("expires", tempUrl.getExpires());
+        } catch (Exception e) {
+            result.put("error", e.getMessage());
+        }
+        return result.toString();
+    }
+
+    /**
+     * 下载地址
+     *
+     * @param fileName 存储全名
+     * @param ttl      有效期(秒),默认swift.tempUrl.ttl
+     * @return
+     */
+    @GetMapping(value = "/tempurl/download", produces = "application/json")
+    @ResponseBody
+    public String download(String fileName, Long ttl) {
+        JSONObject result = new JSONObject();
+        try {
+            TempUrl tempUrl = tempUrlService.downloadUrl(fileName, ttl == null ? 0 : ttl);
+            result.put("method", tempUrl.getMethod());
+            result.put("url", tempUrl.getUrl());
+            result.put("expires", tempUrl.getExpires());
+        } catch (Exception e) {
+            result.put("error", e.getMessage());
+        }
+        return result.toString();
+    }
+
+    /**
+     * 大文件分片直传: 按序号返回各分片的上传地址,全部上传后调用/tempurl/complete
+     *
+     * @param fileName 原始文件名
+     * @param count    分片数
+     * @param ttl      有效期(秒),默认swift.tempUrl.ttl
+     * @return
+     */
+    @GetMapping(value = "/tempurl/segments", produces = "application/json")
+    @ResponseBody
+    public String segments(String fileName, int count, Long ttl) {
+        JSONObject result = new JSONObject();
+        try {
+            String uploadId = UUID.randomUUID().toString();
+            String storeName = storeName(fileName);
+            List<TempUrl> tempUrls = tempUrlService.segmentUrls(storeName, uploadId, count, ttl == null ? 0 : ttl);
+            JSONArray urls = new JSONArray();
+            for (TempUrl tempUrl : tempUrls) {
+                urls.add(tempUrl.getUrl());
+            }
+            result.put("gen_file_name", storeName);
+            result.put("upload_id", uploadId);
+            result.put("method", "PUT");
+            result.put("urls", urls);
+            result.put("expires", tempUrls.get(0).getExpires());
+        } catch (Exception e) {
+            result.put("error", e.getMessage());
+        }
+        return result.toString();
+    }
+
+    /**
+     * 写入SLO清单
+     *
+     * @param fileName /tempurl/segments返回的gen_file_name
+     * @param uploadId /tempurl/segments返回的upload_id
+     * @param body     按序号排列的分片,如 [{"etag":"...","size":1048576}]
+     * @return
+     */
+    @PostMapping(value = "/tempurl/complete", produces = "application/json")
+    @ResponseBody
+    public String complete(String fileName, String uploadId, @RequestBody String body) {
+        JSONObject result = new JSONObject();
+        try {
+            String eTag = tempUrlService.complete(fileName, uploadId, JSONArray.fromObject(body));
+            if (eTag != null) {
+                result.put("gen_file_name", fileName);
+                result.put("container", tempUrlService.getContainer());
+                result.put("etag", eTag);
+                return result.toString();
+            }
+            result.put("error", "manifest rejected");
+        } catch (Exception e) {
+            result.put("error", e.getMessage());
+        }
+        return result.toString();
+    }
+
+    /**
+     * 存储名由本服务生成: 时间戳+原文件扩展名
+     */
+    private String storeName(String fileName) {
+        String ext = fileName == null || fileName.lastIndexOf(".") < 0 ? "" : fileName.substring(fileName.lastIndexOf("."));
+        if (!ext.matches("(\\.[0-9a-zA-Z]{1,16})?")) {
+            throw new IllegalArgumentException("invalid file extension: " + ext);
+        }
+        return System.currentTimeMillis() + ext;
+    }
+}
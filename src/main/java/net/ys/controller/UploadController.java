@@ -1,19 +1,42 @@
 package net.ys.controller;
 
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.bean.CachedObject;
+import net.ys.bean.ObjectInfo;
+import net.ys.bean.SwiftObject;
+import net.ys.bean.UploadSession;
+import net.ys.service.AdmissionControl;
+import net.ys.service.ObjectCache;
+import net.ys.service.ParallelDownloader;
 import net.ys.service.UploadService;
-import org.apache.http.HttpEntity;
+import net.ys.util.HttpClientPool;
+import net.ys.util.Md5Util;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
-import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.Resource;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 /**
  * User: NMY
@@ -21,29 +44,64 @@ import java.io.InputStream;
  * Time: 13:48
  */
 @Controller
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class UploadController {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     @Resource
     private UploadService uploadService;
 
+    @Resource
+    private ObjectCache objectCache;
+
+    @Resource
+    private ParallelDownloader parallelDownloader;
+
+    @Value("${swift.upload.maxSize:1024}")
+    private long maxSize;//表单上传请求体上限(MB)
+
     @GetMapping("/")
     public String index() {
         return "index";
     }
 
+    /**
+     * 表单上传: 流式解析multipart,文件部分边接收边上传到swift,不在本地落盘
+     *
+     * @param request
+     * @param model
+     * @return
+     */
     @PostMapping("/upload")
-    public String upload(MultipartFile file, Model model) {
+    public String upload(HttpServletRequest request, Model model) {
         try {
             long start = System.currentTimeMillis();
-            String fileName = file.getOriginalFilename();
-            String storeName = System.currentTimeMillis() + fileName.substring(fileName.lastIndexOf("."));
-            String eTag = uploadService.upload(file.getInputStream(), uploadService.getContainer(), storeName);
-            if (eTag != null) {
-                long useTime = System.currentTimeMillis() - start;
-                model.addAttribute("use_time", useTime);
-                model.addAttribute("gen_file_name", storeName);
-                model.addAttribute("container", uploadService.getContainer());
-                return "success";
+            if (!ServletFileUpload.isMultipartContent(request)) {
+                throw new IOException("multipart/form-data required");
+            }
+            ServletFileUpload upload = new ServletFileUpload();
+            upload.setSizeMax(maxSize * 1024L * 1024);
+            FileItemIterator items = upload.getItemIterator(request);
+            while (items.hasNext()) {
+                FileItemStream item = items.next();
+                if (item.isFormField() || !"file".equals(item.getFieldName())) {
+                    continue;
+                }
+                String fileName = item.getName();
+                String storeName = System.currentTimeMillis() + fileName.substring(fileName.lastIndexOf("."));
+                String eTag;
+                try (InputStream in = item.openStream()) {//请求体已由AdmissionFilter限速
+                    eTag = uploadService.uploadAuto(in, -1, request.getContentLengthLong(), storeName, item.getContentType());//文件不超过请求体长度
+                }
+                if (eTag != null) {
+                    long useTime = System.currentTimeMillis() - start;
+                    model.addAttribute("use_time", useTime);
+                    model.addAttribute("gen_file_name", storeName);
+                    model.addAttribute("container", uploadService.getContainer());
+                    return "success";
+                }
+                break;
             }
         } catch (Exception e) {
             model.addAttribute("error", e.getMessage());
@@ -52,37 +110,338 @@ public class UploadController {
         return "failed";
     }
 
-    @GetMapping("/split/upload")
+    /**
+     * 请求体直接转发到swift,不经过multipart解析与落盘
+     *
+     * @param request
+     * @param fileName 原始文件名
+     * @return
+     */
+    @PutMapping(value = "/upload/stream", produces = "application/json")
+    @ResponseBody
+    public String uploadStream(HttpServletRequest request, String fileName) {
+        JSONObject result = new JSONObject();
+        try {
+            long start = System.currentTimeMillis();
+            String storeName = System.currentTimeMillis() + fileName.substring(fileName.lastIndexOf("."));
+            String eTag = uploadService.uploadAuto(request.getInputStream(), request.getContentLengthLong(), storeName, request.getContentType());//请求体已由AdmissionFilter限速
+            if (eTag != null) {
+                result.put("use_time", System.currentTimeMillis() - start);
+                result.put("gen_file_name", storeName);
+                result.put("container", uploadService.getContainer());
+                result.put("etag", eTag);
+                return result.toString();
+            }
+            result.put("error", "upload failed");
+        } catch (Exception e) {
+            result.put("error", e.getMessage());
+        }
+        return result.toString();
+    }
+
+    @GetMapping(value = "/split/upload", produces = "application/json")
     @ResponseBody
-    public String splitUpload() {
+    public String splitUpload(HttpServletResponse response) {
+        JSONObject result = new JSONObject();
         try {
-            uploadService.splitUpload();
-            return "success";
+            result.put("session_id", uploadService.splitUpload());
+            result.put("result", "success");
+        } catch (AdmissionControl.RejectedException e) {
+            reject(response, e, result);
         } catch (IOException e) {
+            result.put("result", "failed");
+            result.put("error", e.getMessage());
         }
-        return "failed";
+        return result.toString();
+    }
+
+    /**
+     * 续传失败的分片上传,会话ID见/split/sessions
+     *
+     * @param sessionId
+     * @return
+     */
+    @GetMapping(value = "/split/resume", produces = "application/json")
+    @ResponseBody
+    public String resumeUpload(HttpServletResponse response, String sessionId) {
+        JSONObject result = new JSONObject();
+        result.put("session_id", sessionId);
+        try {
+            uploadService.resumeUpload(sessionId);
+            result.put("result", "success");
+        } catch (AdmissionControl.RejectedException e) {
+            reject(response, e, result);
+        } catch (Exception e) {
+            result.put("result", "failed");
+            result.put("error", e.getMessage());
+        }
+        return result.toString();
+    }
+
+    /**
+     * 同时进行的分片上传过多,与AdmissionFilter一致返回429 + Retry-After
+     */
+    private void reject(HttpServletResponse response, AdmissionControl.RejectedException e, JSONObject result) {
+        response.setStatus(429);
+        response.setHeader("Retry-After", String.valueOf(e.getRetryAfter()));
+        result.put("result", "failed");
+        result.put("error", e.getMessage());
+    }
+
+    /**
+     * 放弃未完成的分片上传,已上传的分片在后台删除
+     *
+     * @param sessionId
+     * @return
+     */
+    @GetMapping(value = "/split/abandon", produces = "application/json")
+    @ResponseBody
+    public String abandonUpload(String sessionId) {
+        JSONObject result = new JSONObject();
+        result.put("session_id", sessionId);
+        try {
+            uploadService.abandonUpload(sessionId);
+            result.put("result", "success");
+        } catch (Exception e) {
+            result.put("result", "failed");
+            result.put("error", e.getMessage());
+        }
+        return result.toString();
+    }
+
+    /**
+     * 未完成的分片上传会话
+     */
+    @GetMapping(value = "/split/sessions", produces = "application/json")
+    @ResponseBody
+    public String uploadSessions() throws IOException {
+        JSONArray result = new JSONArray();
+        for (UploadSession session : uploadService.listUploadSessions()) {
+            JSONObject object = new JSONObject();
+            object.put("session_id", session.getId());
+            object.put("store_name", session.getStoreName());
+            object.put("segments", session.getSegFiles().size());
+            object.put("uploaded", session.getUploadedCount());
+            result.add(object);
+        }
+        return result.toString();
+    }
+
+    /**
+     * 分页列出上传容器内的对象
+     *
+     * @param prefix    对象名前缀
+     * @param delimiter 目录分隔符, 如/
+     * @param marker    上一页返回的next_marker
+     * @param limit     每页数量, 默认1000
+     * @return
+     */
+    @GetMapping(value = "/list", produces = "application/json")
+    @ResponseBody
+    public String list(String prefix, String delimiter, String marker, Integer limit) {
+        JSONObject result = new JSONObject();
+        try {
+            int pageSize = limit == null ? 1000 : Math.max(1, Math.min(limit, 10000));
+            List<SwiftObject> objects = uploadService.listObjects(prefix, delimiter, marker, pageSize);
+            JSONArray array = new JSONArray();
+            for (SwiftObject object : objects) {
+                JSONObject item = new JSONObject();
+                item.put("name", object.getName());
+                if (object.isDir()) {
+                    item.put("dir", true);
+                } else {
+                    item.put("size", object.getSize());
+                    item.put("etag", object.getETag());
+                    item.put("last_modified", object.getLastModified());
+                    item.put("content_type", object.getContentType());
+                }
+                array.add(item);
+            }
+            result.put("objects", array);
+            if (objects.size() == pageSize) {
+                result.put("next_marker", objects.get(objects.size() - 1).getName());
+            }
+        } catch (Exception e) {
+            result.put("error", e.getMessage());
+        }
+        return result.toString();
     }
 
     @GetMapping("/download")
-    public void download(HttpServletResponse response, String fileName) {
+    public void download(HttpServletRequest request, HttpServletResponse response, String fileName) {
+        CloseableHttpResponse rsp = null;
         try {
-            HttpEntity entity = uploadService.download(fileName);
-            if (entity == null) {
+            if (objectCache.isEnabled() && request.getHeader("Range") == null) {
+                try (ObjectCache.Lookup lookup = objectCache.get(fileName)) {//写出期间缓存文件不会被删除
+                    if (lookup.getObject() != null) {
+                        writeCached(request, response, fileName, lookup.getObject());
+                        return;
+                    }
+                    rsp = lookup.getResponse();//缓存回源的响应不能缓存时直接写出
+                }
+            }
+
+            if (rsp == null) {
+                rsp = uploadService.download(fileName, request.getHeader("Range"), request.getHeader("If-Range"));
+            }
+            int code = rsp.getStatusLine().getStatusCode();
+            if (code == HttpStatus.SC_OK && request.getHeader("Range") == null) {//按GET的响应头判断是否为大对象,不额外HEAD
+                ObjectInfo info = ParallelDownloader.info(rsp);
+                if (parallelDownloader.accept(info) && (info.getCodec() == null || acceptsGzip(request))) {//需要解压时走单连接
+                    HttpClientPool.abort(rsp);//不读取响应体,改为并发下载
+                    rsp = null;
+                    writeParallel(request, response, fileName, info);
+                    return;
+                }
+            }
+            String codec = headerValue(rsp, UploadService.META_CODEC);
+            if (codec != null && !acceptsGzip(request)) {
+                if (code == HttpStatus.SC_PARTIAL_CONTENT) {//区间针对压缩数据,解压时只能返回完整内容
+                    HttpClientPool.abort(rsp);
+                    rsp = null;
+                    rsp = uploadService.download(fileName, null, null);
+                }
+                writeDecoded(response, fileName, rsp);
+                return;
+            }
+            response.setStatus(code);
+            if (codec != null) {
+                response.setHeader("Content-Encoding", codec);
+                response.setHeader("Vary", "Accept-Encoding");
+            }
+            copyHeaders(rsp, response, "Content-Range", "Accept-Ranges", "ETag", "Last-Modified");
+            if (code != HttpStatus.SC_OK && code != HttpStatus.SC_PARTIAL_CONTENT) {
                 return;
             }
 
-            response.setCharacterEncoding("utf-8");
+            copyHeaders(rsp, response, "Content-Length", "Content-Type");
             response.setHeader("Content-Disposition", "attachment; filename=" + fileName);
-            InputStream is = entity.getContent();
+            InputStream is = rsp.getEntity().getContent();
             ServletOutputStream out = response.getOutputStream();
-            byte[] bytes = new byte[2048];
-            int len;
-            while ((len = is.read(bytes)) > 0) {
-                out.write(bytes, 0, len);
-                out.flush();
-            }
-            out.close();
+            Md5Util.copyVerified(is, out, uploadService.isVerify() ? Md5Util.verifiableETag(rsp) : null);//校验通过才写出最后一块
+            out.flush();
         } catch (Exception e) {
+            HttpClientPool.abort(rsp);//客户端断开或校验失败时不再读取剩余数据
+            rsp = null;
+        } finally {
+            HttpClientPool.release(rsp);//释放连接回连接池
+        }
+    }
+
+    private void writeCached(HttpServletRequest request, HttpServletResponse response, String fileName, CachedObject cached) throws IOException {
+        if (cached.getETag() != null) {
+            response.setHeader("ETag", cached.getETag());
+            if (cached.getETag().equals(request.getHeader("If-None-Match"))) {
+                response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        if (cached.getLastModified() != null) {
+            response.setHeader("Last-Modified", cached.getLastModified());
+        }
+        if (cached.getContentType() != null) {
+            response.setContentType(cached.getContentType());
+        }
+        response.setHeader("Content-Disposition", "attachment; filename=" + fileName);
+        boolean decode = cached.getCodec() != null && !acceptsGzip(request);
+        if (cached.getCodec() != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        if (decode) {
+            if (cached.getETag() != null) {
+                response.setHeader("ETag", "W/" + cached.getETag());//解压后内容与存储内容不同
+            }
+            if (cached.getOriginalLength() >= 0) {
+                response.setContentLengthLong(cached.getOriginalLength());
+            }
+        } else {
+            if (cached.getCodec() != null) {
+                response.setHeader("Content-Encoding", cached.getCodec());
+            }
+            response.setHeader("Accept-Ranges", "bytes");
+            response.setContentLengthLong(cached.getLength());
+        }
+        ServletOutputStream out = response.getOutputStream();
+        try (InputStream in = decode ? new GZIPInputStream(cached.openStream(), BUFFER_SIZE) : cached.openStream()) {
+            IOUtils.copyLarge(in, out, new byte[BUFFER_SIZE]);
+        }
+        out.flush();
+    }
+
+    /**
+     * 压缩存储的对象,客户端不接受gzip时边读边解压,读完压缩数据后校验MD5
+     */
+    private void writeDecoded(HttpServletResponse response, String fileName, CloseableHttpResponse rsp) throws IOException {
+        int code = rsp.getStatusLine().getStatusCode();
+        response.setStatus(code);
+        response.setHeader("Vary", "Accept-Encoding");
+        Header eTag = rsp.getFirstHeader("Etag");
+        if (eTag != null) {
+            response.setHeader("ETag", "W/" + eTag.getValue());
+        }
+        copyHeaders(rsp, response, "Last-Modified");
+        if (code != HttpStatus.SC_OK) {
+            return;
+        }
+        copyHeaders(rsp, response, "Content-Type");
+        String originalLength = headerValue(rsp, UploadService.META_LENGTH);
+        if (originalLength != null) {
+            response.setContentLengthLong(Long.parseLong(originalLength));
+        }
+        response.setHeader("Content-Disposition", "attachment; filename=" + fileName);
+        Md5Util.Md5InputStream raw = new Md5Util.Md5InputStream(rsp.getEntity().getContent(), uploadService.isVerify() ? Md5Util.verifiableETag(rsp) : null);
+        ServletOutputStream out = response.getOutputStream();
+        IOUtils.copyLarge(new GZIPInputStream(raw, BUFFER_SIZE), out, new byte[BUFFER_SIZE]);
+        IOUtils.skip(raw, Long.MAX_VALUE);//读到结尾触发校验
+        raw.verify();
+        out.flush();
+    }
+
+    private boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains(UploadService.CODEC_GZIP);
+    }
+
+    private String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    /**
+     * 大对象并发下载后按顺序写出
+     */
+    private void writeParallel(HttpServletRequest request, HttpServletResponse response, String fileName, ObjectInfo info) throws IOException {
+        if (info.getETag() != null) {
+            response.setHeader("ETag", info.getETag());
+            if (info.getETag().equals(request.getHeader("If-None-Match"))) {
+                response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        if (info.getLastModified() != null) {
+            response.setHeader("Last-Modified", info.getLastModified());
+        }
+        if (info.getContentType() != null) {
+            response.setContentType(info.getContentType());
+        }
+        if (info.getCodec() != null) {
+            response.setHeader("Content-Encoding", info.getCodec());
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setContentLengthLong(info.getLength());
+        response.setHeader("Content-Disposition", "attachment; filename=" + fileName);
+        ServletOutputStream out = response.getOutputStream();
+        parallelDownloader.download(fileName, info, out);
+        out.flush();
+    }
+
+    private void copyHeaders(HttpResponse from, HttpServletResponse to, String... names) {
+        for (String name : names) {
+            Header header = from.getFirstHeader(name);
+            if (header != null) {
+                to.setHeader(name, header.getValue());
+            }
         }
     }
 }
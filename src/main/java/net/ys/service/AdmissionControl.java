@@ -0,0 +1,241 @@
+package net.ys.service;
+
+import net.ys.util.SwiftMetrics;
+import net.ys.util.TokenBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 准入控制: 上传、下载、分片上传各自限制并发数,超出时最多queueSize个请求排队等待queueTimeout,
+ * 队列已满或等待超时立即拒绝(429 + Retry-After);按客户端与容器的令牌桶限速,各限速项为0时不限
+ */
+@Component
+public class AdmissionControl {
+
+    public static final String TYPE_UPLOAD = "upload";
+
+    public static final String TYPE_DOWNLOAD = "download";
+
+    public static final String TYPE_SPLIT_UPLOAD = "split_upload";
+
+    @Value("${swift.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${swift.admission.maxUploads:32}")
+    private int maxUploads;
+
+    @Value("${swift.admission.maxDownloads:64}")
+    private int maxDownloads;
+
+    @Value("${swift.admission.maxSplitUploads:4}")
+    private int maxSplitUploads;
+
+    @Value("${swift.admission.queueSize:64}")
+    private int queueSize;//每类请求最多排队数
+
+    @Value("${swift.admission.queueTimeout:3000}")
+    private long queueTimeout;//排队最长等待(毫秒)
+
+    @Value("${swift.admission.retryAfter:1}")
+    private int retryAfter;//拒绝时建议的重试间隔(秒)
+
+    @Value("${swift.admission.clientRate:0}")
+    private long clientRate;//KB/s,每个客户端
+
+    @Value("${swift.admission.containerRate:0}")
+    private long containerRate;//KB/s,每个容器
+
+    @Value("${swift.admission.maxClients:10000}")
+    private int maxClients;//记录限速状态的客户端数
+
+    @Resource
+    private SwiftMetrics swiftMetrics;
+
+    private final Map<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, TokenBucket> containerBuckets = new ConcurrentHashMap<>();
+
+    private final LinkedHashMap<String, TokenBucket> clientBuckets = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+            return size() > maxClients;
+        }
+    };
+
+    /**
+     * 排队或拒绝时抛出,调用方返回429
+     */
+    public static class RejectedException extends IOException {
+
+        private final int retryAfter;
+
+        public RejectedException(String message, int retryAfter) {
+            super(message);
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * @return 建议的重试间隔(秒)
+         */
+        public int getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+    /**
+     * 已获得的许可,关闭时释放
+     */
+    public interface Permit extends Closeable {
+        @Override
+        void close();
+    }
+
+    /**
+     * 一类请求的并发限制与等待队列
+     */
+    private class Limiter {
+
+        final String type;
+
+        final Semaphore permits;
+
+        final AtomicInteger waiting = new AtomicInteger();
+
+        Limiter(String type, int max) {
+            this.type = type;
+            this.permits = new Semaphore(max, true);//先到先得,排队时延可预期
+            swiftMetrics.gauge("swift.admission.active", type, this, l -> max - l.permits.availablePermits());
+            swiftMetrics.gauge("swift.admission.waiting", type, waiting, AtomicInteger::get);
+        }
+
+        Permit acquire() throws IOException {
+            if (!permits.tryAcquire()) {
+                if (waiting.incrementAndGet() > queueSize) {
+                    waiting.decrementAndGet();
+                    throw reject("queue full");
+                }
+                try {
+                    if (!permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS)) {
+                        throw reject("queue timeout");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(type + " admission interrupted");
+                } finally {
+                    waiting.decrementAndGet();
+                }
+            }
+            AtomicBoolean released = new AtomicBoolean();
+            return () -> {
+                if (released.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            };
+        }
+
+        private RejectedException reject(String reason) {
+            swiftMetrics.admissionRejected(type);
+            return new RejectedException("too many " + type + " requests: " + reason, retryAfter);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        limiters.put(TYPE_UPLOAD, new Limiter(TYPE_UPLOAD, maxUploads));
+        limiters.put(TYPE_DOWNLOAD, new Limiter(TYPE_DOWNLOAD, maxDownloads));
+        limiters.put(TYPE_SPLIT_UPLOAD, new Limiter(TYPE_SPLIT_UPLOAD, maxSplitUploads));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取许可
+     *
+     * @param type 见TYPE_*
+     * @return 许可, 用完后关闭
+     * @throws RejectedException 队列已满或等待超时
+     * @throws IOException
+     */
+    public Permit acquire(String type) throws IOException {
+        if (!enabled) {
+            return () -> {
+            };
+        }
+        return limiters.get(type).acquire();
+    }
+
+    /**
+     * 按客户端与容器限速读取
+     *
+     * @param in
+     * @param client    客户端地址, 可为null
+     * @param container 容器, 可为null
+     * @return
+     */
+    public InputStream throttle(InputStream in, String client, String container) {
+        TokenBucket clientBucket = clientBucket(client);
+        TokenBucket containerBucket = containerBucket(container);
+        return clientBucket == null && containerBucket == null ? in : TokenBucket.throttle(in, clientBucket, containerBucket);
+    }
+
+    /**
+     * 按客户端与容器限速写出
+     *
+     * @param out
+     * @param client    客户端地址, 可为null
+     * @param container 容器, 可为null
+     * @return
+     */
+    public OutputStream throttle(OutputStream out, String client, String container) {
+        TokenBucket clientBucket = clientBucket(client);
+        TokenBucket containerBucket = containerBucket(container);
+        return clientBucket == null && containerBucket == null ? out : TokenBucket.throttle(out, clientBucket, containerBucket);
+    }
+
+    /**
+     * 按容器限速,发送length字节前调用,不足时等待
+     *
+     * @param container
+     * @param length
+     * @throws InterruptedIOException
+     */
+    public void throttle(String container, long length) throws InterruptedIOException {
+        TokenBucket bucket = containerBucket(container);
+        if (bucket != null) {
+            bucket.acquire(length);
+        }
+    }
+
+    private TokenBucket clientBucket(String client) {
+        if (!enabled || clientRate <= 0 || client == null) {
+            return null;
+        }
+        synchronized (clientBuckets) {
+            return clientBuckets.computeIfAbsent(client, key -> new TokenBucket(clientRate * 1024));
+        }
+    }
+
+    private TokenBucket containerBucket(String container) {
+        if (!enabled || containerRate <= 0 || container == null) {
+            return null;
+        }
+        return containerBuckets.computeIfAbsent(container, key -> new TokenBucket(containerRate * 1024));
+    }
+}
@@ -0,0 +1,166 @@
+package net.ys.service;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.bean.BulkResult;
+import net.ys.bean.SwiftObject;
+import net.ys.util.FastCdc;
+import net.ys.util.SwiftUtil;
+import net.ys.util.VirtualThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 批量操作: 多个对象按batchSize分批用bulk-delete删除,多批并发执行;递归删除容器;SLO大对象整体删除
+ */
+@Service
+public class BulkService {
+
+    @Value("${swift.bulk.batchSize:1000}")
+    private int batchSize;//单次bulk-delete的对象数,不能超过swift的max_deletes_per_request
+
+    @Value("${swift.bulk.threads:4}")
+    private int threads;
+
+    @Value("${swift.virtualThreads:false}")
+    private boolean virtualThreads;//虚拟线程模式下threads为信号量许可数
+
+    @Value("${swift.dedup.enabled:false}")
+    private boolean dedup;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = VirtualThreads.newExecutor(virtualThreads, threads, "swift-bulk-");
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 删除容器内的多个对象
+     *
+     * @param containerName
+     * @param names         对象名
+     * @return
+     * @throws IOException
+     */
+    public BulkResult delete(String containerName, Collection<String> names) throws IOException {
+        List<String> paths = new ArrayList<>(names.size());
+        for (String name : names) {
+            paths.add(containerName + "/" + name);
+        }
+        return deletePaths(paths);
+    }
+
+    /**
+     * 删除多个对象,超过batchSize时分批并发删除
+     *
+     * @param paths 容器/对象 形式的路径
+     * @return 合并后的结果
+     * @throws IOException
+     */
+    public BulkResult deletePaths(List<String> paths) throws IOException {
+        if (paths.size() <= batchSize) {
+            return paths.isEmpty() ? new BulkResult() : SwiftUtil.bulkDelete(paths);
+        }
+        List<Future<BulkResult>> futures = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i += batchSize) {
+            List<String> batch = paths.subList(i, Math.min(i + batchSize, paths.size()));
+            futures.add(executor.submit(() -> SwiftUtil.bulkDelete(batch)));
+        }
+        BulkResult result = new BulkResult();
+        try {
+            for (Future<BulkResult> future : futures) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("bulk delete interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            for (Future<BulkResult> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 递归删除容器: 分页遍历对象,每满batchSize提交一次批量删除,清空后删除容器
+     *
+     * @param containerName
+     * @return 对象删除结果, 有失败项时不删除容器
+     * @throws IOException
+     */
+    public BulkResult deleteContainer(String containerName) throws IOException {
+        BulkResult result = new BulkResult();
+        int pageSize = Math.min(batchSize * threads, 10000);
+        List<String> names = new ArrayList<>();
+        try {
+            Iterator<SwiftObject> iterator = SwiftUtil.listObjects(containerName, null, null, pageSize);
+            while (iterator.hasNext()) {
+                names.add(iterator.next().getName());
+                if (names.size() == pageSize || !iterator.hasNext()) {//删除与翻页交替进行,marker不受删除影响
+                    result.add(delete(containerName, names));
+                    names.clear();
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (!result.isSuccess()) {
+            return result;
+        }
+        if (!SwiftUtil.deleteContainer(containerName)) {
+            throw new IOException("delete container " + containerName + " failed");
+        }
+        return result;
+    }
+
+    /**
+     * 删除SLO大对象及其全部分片,一次请求完成;去重模式下按内容命名的分片可能被其他对象引用,
+     * 只删除清单与非内容命名(随机命名)的分片,不再被引用的内容命名分片不会回收
+     *
+     * @param containerName
+     * @param storeName
+     * @return
+     * @throws IOException
+     */
+    public BulkResult deleteLargeObject(String containerName, String storeName) throws IOException {
+        if (!dedup) {
+            return SwiftUtil.deleteManifest(containerName, storeName);
+        }
+        List<String> paths = new ArrayList<>();
+        JSONArray manifest = SwiftUtil.getManifest(containerName, storeName);
+        if (manifest != null) {
+            for (int i = 0; i < manifest.size(); i++) {
+                JSONObject segment = manifest.getJSONObject(i);
+                String path = segment.getString("name");
+                path = path.startsWith("/") ? path.substring(1) : path;
+                if (!segment.optBoolean("sub_slo") && !FastCdc.isContentName(path.substring(path.indexOf('/') + 1))) {
+                    paths.add(path);//流式分片上传等路径的随机命名分片只属于本对象
+                }
+            }
+        }
+        paths.add(containerName + "/" + storeName);
+        return SwiftUtil.bulkDelete(paths);
+    }
+}
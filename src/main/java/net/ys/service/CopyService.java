@@ -0,0 +1,302 @@
+package net.ys.service;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.util.FastCdc;
+import net.ys.util.HttpClientPool;
+import net.ys.util.SwiftMetrics;
+import net.ys.util.SwiftUtil;
+import net.ys.util.TokenManager;
+import net.ys.util.VirtualThreads;
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 服务端复制/移动,数据不经过本服务: 普通对象用X-Copy-From;SLO各分片并发服务端复制后写入新清单,
+ * 两个清单不共用分片,删除任一对象(multipart-manifest=delete)不影响另一个;去重模式下按内容命名的分片共用且不随清单删除,只复制随机命名的分片;
+ * DLO复制X-Object-Manifest;移动为只复制清单后删除源清单,分片归新对象所有,相当于改名
+ */
+@Service
+public class CopyService {
+
+    @Value("${swift.segContainer}")
+    private String segContainer;
+
+    @Value("${swift.copy.threads:8}")
+    private int threads;
+
+    @Value("${swift.virtualThreads:false}")
+    private boolean virtualThreads;
+
+    @Value("${swift.dedup.enabled:false}")
+    private boolean dedup;
+
+    @Resource
+    private TokenManager tokenManager;
+
+    @Resource
+    private SegmentCleaner segmentCleaner;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = VirtualThreads.newExecutor(virtualThreads, threads, "swift-copy-");
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 复制对象
+     *
+     * @param srcContainer 源容器
+     * @param srcName      源对象
+     * @param dstContainer 目标容器
+     * @param dstName      目标对象
+     * @return 新对象的ETAG, 源对象不存在返回null
+     * @throws IOException
+     */
+    public String copy(String srcContainer, String srcName, String dstContainer, String dstName) throws IOException {
+        return copy(srcContainer, srcName, dstContainer, dstName, true);
+    }
+
+    /**
+     * @param segments SLO是否复制分片, 不复制时调用方须保证源清单随后删除
+     */
+    private String copy(String srcContainer, String srcName, String dstContainer, String dstName, boolean segments) throws IOException {
+        if (srcContainer.equals(dstContainer) && srcName.equals(dstName)) {
+            throw new IllegalArgumentException("source and destination are the same object");
+        }
+        CloseableHttpResponse head = null;
+        try {
+            head = tokenManager.execute(SwiftMetrics.OP_HEAD, new HttpHead(), SwiftUtil.encode(srcContainer, srcName));
+            int code = head.getStatusLine().getStatusCode();
+            if (code == 404) {
+                return null;
+            }
+            if (code >= 300) {
+                throw new IOException("head " + srcName + " failed: " + code);
+            }
+            Header slo = head.getFirstHeader("X-Static-Large-Object");
+            Header dlo = head.getFirstHeader("X-Object-Manifest");
+            if (slo != null && "true".equalsIgnoreCase(slo.getValue())) {
+                return copyManifest(head, srcContainer, srcName, dstContainer, dstName, segments);
+            }
+            HttpPut httpPut = new HttpPut();
+            httpPut.setEntity(new ByteArrayEntity(new byte[0]));
+            if (dlo != null) {
+                copyMetadata(head, httpPut);
+                httpPut.addHeader("X-Object-Manifest", dlo.getValue());//DLO按前缀引用分片,复制清单即可
+            } else {
+                httpPut.addHeader("X-Copy-From", SwiftUtil.encode(srcContainer, srcName));
+            }
+            return put(httpPut, SwiftUtil.encode(dstContainer, dstName), dstName);
+        } finally {
+            HttpClientPool.release(head);
+        }
+    }
+
+    /**
+     * 移动对象: 复制时不复制分片,再删除源对象(大对象只删除清单),分片归新对象所有;
+     * 删除源对象失败时删除新清单,避免两个清单共用分片
+     *
+     * @return 新对象的ETAG, 源对象不存在返回null
+     * @throws IOException
+     */
+    public String move(String srcContainer, String srcName, String dstContainer, String dstName) throws IOException {
+        String eTag = copy(srcContainer, srcName, dstContainer, dstName, false);
+        if (eTag == null) {
+            return null;
+        }
+        CloseableHttpResponse response = null;
+        try {
+            response = tokenManager.execute(SwiftMetrics.OP_DELETE, new HttpDelete(), SwiftUtil.encode(srcContainer, srcName));
+            int code = response.getStatusLine().getStatusCode();
+            if (code >= 300 && code != 404) {//源清单确定未删除时撤销新清单;连接异常时无法确定,保留两者
+                segmentCleaner.deleteRemote(dstContainer, dstName);//只删除新清单,分片仍由源清单引用
+                throw new IOException("move " + srcName + " failed, delete source: " + code);
+            }
+        } finally {
+            HttpClientPool.release(response);
+        }
+        return eTag;
+    }
+
+    /**
+     * 读取源清单并写入目标清单,保留元数据
+     */
+    private String copyManifest(CloseableHttpResponse head, String srcContainer, String srcName, String dstContainer, String dstName, boolean segments) throws IOException {
+        JSONArray manifest;
+        CloseableHttpResponse response = null;
+        try {
+            response = tokenManager.execute(SwiftMetrics.OP_COPY, new HttpGet(), SwiftUtil.encode(srcContainer, srcName) + "?multipart-manifest=get");
+            if (response.getStatusLine().getStatusCode() >= 300) {
+                throw new IOException("get manifest " + srcName + " failed: " + response.getStatusLine().getStatusCode());
+            }
+            manifest = JSONArray.fromObject(EntityUtils.toString(response.getEntity(), "UTF-8"));
+        } finally {
+            HttpClientPool.release(response);
+        }
+        List<String> copied = segments ? copySegments(manifest) : null;
+        JSONArray data = new JSONArray();
+        for (int i = 0; i < manifest.size(); i++) {
+            JSONObject segment = manifest.getJSONObject(i);
+            String name = segment.getString("name");
+            JSONObject object = new JSONObject();
+            String copy = copied == null ? null : copied.get(i);
+            object.put("path", copy != null ? segContainer + "/" + copy : (name.startsWith("/") ? name.substring(1) : name));
+            object.put("etag", segment.getString("hash"));
+            object.put("size_bytes", segment.getLong("bytes"));
+            if (segment.has("range")) {
+                object.put("range", segment.getString("range"));
+            }
+            data.add(object);
+        }
+        HttpPut httpPut = new HttpPut();
+        copyMetadata(head, httpPut);
+        httpPut.setEntity(new ByteArrayEntity(data.toString().getBytes(StandardCharsets.UTF_8)));
+        try {
+            return put(httpPut, SwiftUtil.encode(dstContainer, dstName) + "?multipart-manifest=put", dstName);
+        } catch (IOException e) {
+            if (copied != null) {
+                deleteCopies(copied);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 并发服务端复制各分片到segContainer,去重模式下按内容命名的分片共用不复制
+     *
+     * @return 按清单顺序的新分片名, 共用的分片为null
+     */
+    private List<String> copySegments(JSONArray manifest) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < manifest.size(); i++) {
+            JSONObject segment = manifest.getJSONObject(i);
+            if (segment.optBoolean("sub_slo")) {//嵌套清单无法独立复制,共用会在删除时连带删除
+                throw new IOException("nested manifest " + segment.getString("name") + " is not supported");
+            }
+            String source = segment.getString("name");
+            if (dedup && FastCdc.isContentName(source.substring(source.lastIndexOf('/') + 1))) {
+                names.add(null);
+                continue;
+            }
+            String name = UUID.randomUUID().toString();
+            names.add(name);
+            futures.add(executor.submit(() -> {
+                HttpPut httpPut = new HttpPut();
+                httpPut.setEntity(new ByteArrayEntity(new byte[0]));
+                httpPut.addHeader("X-Copy-From", SwiftUtil.encode(source.startsWith("/") ? source : "/" + source));
+                return put(httpPut, SwiftUtil.encode(segContainer, name), name);
+            }));
+        }
+        IOException error = null;
+        for (Future<String> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                error = new InterruptedIOException("copy segments interrupted");
+                break;
+            } catch (ExecutionException e) {
+                error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                break;
+            }
+        }
+        if (error != null) {
+            for (Future<String> future : futures) {//未开始的复制不再执行
+                future.cancel(false);
+            }
+            await(futures);//进行中的复制结束后再清理,否则之后完成的分片无人删除
+            deleteCopies(names);
+            throw error;
+        }
+        return names;
+    }
+
+    /**
+     * 等待进行中的任务结束,不响应中断,结束后恢复中断状态
+     */
+    private void await(List<Future<String>> futures) {
+        boolean interrupted = Thread.interrupted();
+        for (Future<String> future : futures) {
+            while (!future.isCancelled()) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 清理已复制的分片,交给SegmentCleaner在后台执行
+     */
+    private void deleteCopies(List<String> names) throws IOException {
+        List<String> copies = new ArrayList<>();
+        for (String name : names) {
+            if (name != null) {
+                copies.add(name);
+            }
+        }
+        segmentCleaner.deleteRemote(segContainer, copies);
+    }
+
+    private String put(HttpPut httpPut, String path, String name) throws IOException {
+        CloseableHttpResponse response = null;
+        try {
+            response = tokenManager.execute(SwiftMetrics.OP_COPY, httpPut, path);
+            if (response.getStatusLine().getStatusCode() >= 300) {
+                throw new IOException("copy to " + name + " failed: " + response.getStatusLine().getStatusCode());
+            }
+            Header eTag = response.getFirstHeader("Etag");
+            return eTag == null ? "" : eTag.getValue();
+        } finally {
+            HttpClientPool.release(response);
+        }
+    }
+
+    /**
+     * 重写清单时保留Content-Type与X-Object-Meta-*
+     */
+    private void copyMetadata(CloseableHttpResponse head, HttpPut httpPut) {
+        for (Header header : head.getAllHeaders()) {
+            String name = header.getName();
+            if (name.equalsIgnoreCase("Content-Type") || name.toLowerCase().startsWith("x-object-meta-")) {
+                httpPut.addHeader(name, header.getValue());
+            }
+        }
+    }
+}
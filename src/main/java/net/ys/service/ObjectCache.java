@@ -0,0 +1,397 @@
+package net.ys.service;
+
+import net.ys.bean.CachedObject;
+import net.ys.util.HttpClientPool;
+import net.ys.util.Md5Util;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 下载读穿缓存: 小对象放内存,大对象放磁盘,按LRU与总大小淘汰;
+ * 超过ttl后用If-None-Match向swift确认,同一对象的并发未命中只回源一次
+ */
+@Component
+public class ObjectCache {
+
+    @Value("${swift.cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${swift.cache.ttl:10}")
+    private long ttl;//秒,期间内命中不再回源确认
+
+    @Value("${swift.cache.memoryMaxBytes:67108864}")
+    private long memoryMaxBytes;
+
+    @Value("${swift.cache.memoryObjectMax:1048576}")
+    private long memoryObjectMax;
+
+    @Value("${swift.cache.diskDir:${java.io.tmpdir}/swift-cache}")
+    private String diskDir;
+
+    @Value("${swift.cache.diskMaxBytes:1073741824}")
+    private long diskMaxBytes;
+
+    @Value("${swift.cache.diskObjectMax:104857600}")
+    private long diskObjectMax;
+
+    @Resource
+    private UploadService uploadService;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LinkedHashMap<String, CachedObject> memoryTier = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, CachedObject> diskTier = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, Boolean> uncacheable = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > 10000;
+        }
+    };
+
+    private final ConcurrentHashMap<String, CompletableFuture<CachedObject>> loading = new ConcurrentHashMap<>();
+
+    private long memoryBytes;
+
+    private long diskBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (enabled) {
+            File dir = new File(diskDir);
+            FileUtils.forceMkdir(dir);
+            File[] files = dir.listFiles((d, name) -> name.startsWith("obj_") && name.endsWith(".cache"));
+            if (files != null) {
+                for (File file : files) {//上次运行遗留的缓存文件无索引,只清理本缓存创建的文件
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 读取结果: 缓存对象,或回源时不能缓存的响应(对象不存在、过大或长度未知),两者都为空时由调用方直接回源;
+     * 缓存对象在关闭前不会被删除,读取完毕后须关闭
+     */
+    public static class Lookup implements Closeable {
+
+        private final CachedObject object;
+
+        private final CloseableHttpResponse response;
+
+        Lookup(CachedObject object, CloseableHttpResponse response) {
+            this.object = object;
+            this.response = response;
+        }
+
+        public CachedObject getObject() {
+            return object;
+        }
+
+        /**
+         * 未读取的回源响应,由调用方写出后释放
+         */
+        public CloseableHttpResponse getResponse() {
+            return response;
+        }
+
+        /**
+         * 释放缓存对象的引用,不关闭回源响应
+         */
+        @Override
+        public void close() {
+            if (object != null) {
+                object.release();
+            }
+        }
+    }
+
+    /**
+     * 读取对象,命中且有效时直接返回缓存
+     *
+     * @param fileName
+     * @return 读取结果, 回源响应不能缓存时交给调用方直接写出, 避免再次请求swift
+     * @throws IOException
+     */
+    public Lookup get(String fileName) throws IOException {
+        CachedObject cached = lookup(fileName);//已增加引用,回源确认期间不会被删除
+        if (cached != null && System.currentTimeMillis() - cached.getValidatedTime() < ttl * 1000) {
+            hits.incrementAndGet();
+            return new Lookup(cached, null);
+        }
+        if (cached == null && isUncacheable(fileName)) {
+            return new Lookup(null, null);
+        }
+
+        CompletableFuture<CachedObject> future = new CompletableFuture<>();
+        CompletableFuture<CachedObject> running = loading.putIfAbsent(fileName, future);
+        if (running != null) {
+            if (cached != null) {
+                cached.release();
+            }
+            CachedObject loaded = await(running);//已有线程在回源,等待其结果
+            return new Lookup(loaded != null && loaded.retain() ? loaded : null, null);//已被淘汰时由调用方直接回源
+        }
+        boolean keep = false;
+        try {
+            Lookup loaded = load(fileName, cached);
+            keep = cached != null && loaded.object == cached;//确认未修改,引用交给调用方
+            future.complete(loaded.object);
+            return loaded;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            if (cached != null && !keep) {
+                cached.release();
+            }
+            loading.remove(fileName, future);
+        }
+    }
+
+    private CachedObject await(CompletableFuture<CachedObject> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("cache load interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private Lookup load(String fileName, CachedObject cached) throws IOException {
+        CloseableHttpResponse response = uploadService.downloadIfNoneMatch(fileName, cached == null ? null : cached.getETag());
+        boolean abort = false;
+        boolean pass = false;
+        try {
+            int code = response.getStatusLine().getStatusCode();
+            if (code == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                revalidations.incrementAndGet();
+                cached.setValidatedTime(System.currentTimeMillis());
+                return new Lookup(cached, null);
+            }
+            misses.incrementAndGet();
+            remove(fileName);
+            if (code != HttpStatus.SC_OK) {
+                pass = true;
+                return new Lookup(null, response);
+            }
+
+            HttpEntity entity = response.getEntity();
+            long length = entity.getContentLength();
+            boolean memory = length >= 0 && length <= memoryObjectMax && length <= memoryMaxBytes;
+            if (length < 0 || (!memory && (length > diskObjectMax || length > diskMaxBytes))) {//超过单层总容量的对象放入后会淘汰全部缓存
+                markUncacheable(fileName);
+                pass = true;//不读取响应体,交给调用方写出
+                return new Lookup(null, response);
+            }
+            String eTag = headerValue(response, "Etag");
+            String contentType = headerValue(response, "Content-Type");
+            String lastModified = headerValue(response, "Last-Modified");
+            String codec = headerValue(response, UploadService.META_CODEC);
+            String originalLength = headerValue(response, UploadService.META_LENGTH);
+            long decodedLength = originalLength == null ? -1 : Long.parseLong(originalLength);
+            CachedObject object;
+            try (Md5Util.Md5InputStream in = new Md5Util.Md5InputStream(entity.getContent(), uploadService.isVerify() ? Md5Util.verifiableETag(response) : null)) {
+                if (memory) {
+                    byte[] data = IOUtils.toByteArray(in, length);
+                    in.verify();//校验不通过不缓存
+                    object = new CachedObject(eTag, contentType, lastModified, length, data, null, codec, decodedLength);
+                } else {
+                    File file = File.createTempFile("obj_", ".cache", new File(diskDir));
+                    try {
+                        FileUtils.copyInputStreamToFile(in, file);
+                        in.verify();
+                    } catch (IOException e) {
+                        file.delete();
+                        throw e;
+                    }
+                    object = new CachedObject(eTag, contentType, lastModified, length, null, file, codec, decodedLength);
+                }
+            }
+            object.retain();//由调用方读取完毕后释放
+            put(fileName, object);
+            return new Lookup(object, null);
+        } catch (IOException | RuntimeException e) {
+            abort = true;//不读取剩余响应体
+            throw e;
+        } finally {
+            if (abort) {
+                HttpClientPool.abort(response);
+            } else if (!pass) {
+                HttpClientPool.release(response);
+            }
+        }
+    }
+
+    private String headerValue(CloseableHttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    /**
+     * 查找并增加引用,在锁内进行,不会取到已淘汰的对象
+     */
+    private CachedObject lookup(String fileName) {
+        lock.lock();
+        try {
+            CachedObject object = memoryTier.get(fileName);
+            if (object == null) {
+                object = diskTier.get(fileName);
+            }
+            if (object != null) {
+                object.retain();
+            }
+            return object;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isUncacheable(String fileName) {
+        lock.lock();
+        try {
+            return uncacheable.get(fileName) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void markUncacheable(String fileName) {
+        lock.lock();
+        try {
+            uncacheable.put(fileName, Boolean.TRUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(String fileName, CachedObject object) {
+        lock.lock();
+        try {
+            if (object.inMemory()) {
+                memoryBytes -= evict(memoryTier, memoryBytes + object.getLength() - memoryMaxBytes);//先淘汰再放入,不会淘汰新对象
+                discard(memoryTier.put(fileName, object));
+                memoryBytes += object.getLength();
+            } else {
+                diskBytes -= evict(diskTier, diskBytes + object.getLength() - diskMaxBytes);
+                discard(diskTier.put(fileName, object));
+                diskBytes += object.getLength();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 释放被替换的同名对象
+     */
+    private void discard(CachedObject replaced) {
+        if (replaced != null) {
+            if (replaced.inMemory()) {
+                memoryBytes -= replaced.getLength();
+            } else {
+                diskBytes -= replaced.getLength();
+            }
+            replaced.release();
+        }
+    }
+
+    /**
+     * 按LRU顺序淘汰,直到释放overflow字节;正在读取的文件在读取结束后删除
+     *
+     * @return 实际释放的字节数
+     */
+    private long evict(LinkedHashMap<String, CachedObject> tier, long overflow) {
+        long freed = 0;
+        Iterator<CachedObject> it = tier.values().iterator();
+        while (freed < overflow && it.hasNext()) {
+            CachedObject object = it.next();
+            it.remove();
+            freed += object.getLength();
+            object.release();
+        }
+        return freed;
+    }
+
+    /**
+     * 移除对象缓存
+     *
+     * @param fileName
+     */
+    public void remove(String fileName) {
+        lock.lock();
+        try {
+            uncacheable.remove(fileName);
+            CachedObject object = memoryTier.remove(fileName);
+            if (object != null) {
+                memoryBytes -= object.getLength();
+                object.release();
+            }
+            object = diskTier.remove(fileName);
+            if (object != null) {
+                diskBytes -= object.getLength();
+                object.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+}
@@ -0,0 +1,402 @@
+package net.ys.service;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.bean.ObjectInfo;
+import net.ys.util.HttpClientPool;
+import net.ys.util.Md5Util;
+import net.ys.util.SwiftMetrics;
+import net.ys.util.SwiftUtil;
+import net.ys.util.TokenManager;
+import net.ys.util.VirtualThreads;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 大对象并发下载: SLO按清单(multipart-manifest=get)直接读取各分片,普通对象按Range切分,
+ * 多个分段并发下载后按顺序写出;每个下载最多window个分段在内存中,全部下载合计最多maxBuffered个,
+ * 超出时等待最前面的分段写出;写出时计算MD5,普通对象整体、SLO逐个分片与ETAG比对,最后一段校验通过才写出
+ */
+@Component
+public class ParallelDownloader {
+
+    @Value("${swift.container}")
+    private String container;
+
+    @Value("${swift.download.parallel:true}")
+    private boolean enabled;
+
+    @Value("${swift.download.threshold:64}")
+    private int threshold;//MB,超过此大小才并发下载
+
+    @Value("${swift.download.partSize:8}")
+    private int partSize;//MB,每个分段大小
+
+    @Value("${swift.download.threads:8}")
+    private int threads;
+
+    @Value("${swift.virtualThreads:false}")
+    private boolean virtualThreads;//虚拟线程模式下threads为信号量许可数
+
+    @Value("${swift.download.window:16}")
+    private int window;//单个下载最多缓存的分段数
+
+    @Value("${swift.download.maxBuffered:64}")
+    private int maxBuffered;//全部下载合计最多缓存的分段数
+
+    @Value("${swift.download.retries:2}")
+    private int retries;
+
+    @Value("${swift.verify:true}")
+    private boolean verify;
+
+    @Resource
+    private TokenManager tokenManager;
+
+    private ExecutorService executor;
+
+    private Semaphore buffers;//已提交未写出的分段
+
+    /**
+     * 一个分段: 对象路径中的[offset, offset+length)
+     */
+    private static class Part {
+
+        final String path;
+
+        final long offset;
+
+        final int length;
+
+        final String eTag;//用于If-Match,保证各分段来自同一版本
+
+        boolean last;//是否为对象/分片的最后一段,写出前校验整个对象/分片的MD5
+
+        String md5;//最后一段上记录对象/分片的MD5,无法校验时为null
+
+        Part(String path, long offset, int length, String eTag) {
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+            this.eTag = eTag;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        executor = VirtualThreads.newExecutor(virtualThreads, threads, "swift-download-");
+        buffers = new Semaphore(Math.max(maxBuffered, 1));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 是否对此对象并发下载
+     *
+     * @param info
+     * @return
+     */
+    public boolean accept(ObjectInfo info) {
+        return enabled && info != null && info.getLength() > threshold * 1024L * 1024;
+    }
+
+    /**
+     * 查询对象信息
+     *
+     * @param fileName
+     * @return 对象不存在返回null
+     * @throws IOException
+     */
+    public ObjectInfo head(String fileName) throws IOException {
+        CloseableHttpResponse response = null;
+        try {
+            response = tokenManager.execute(SwiftMetrics.OP_HEAD, new HttpHead(), SwiftUtil.encode(container, fileName));
+            if (response.getStatusLine().getStatusCode() >= 300) {
+                return null;
+            }
+            return info(response);
+        } finally {
+            HttpClientPool.release(response);
+        }
+    }
+
+    /**
+     * 由HEAD或不带Range的GET响应头得到对象信息,下载时可先发GET,遇到大对象再改为并发下载,省去HEAD
+     *
+     * @param response
+     * @return
+     */
+    public static ObjectInfo info(HttpResponse response) {
+        Header length = response.getFirstHeader("Content-Length");
+        Header slo = response.getFirstHeader("X-Static-Large-Object");
+        String eTag = response.getFirstHeader("X-Object-Manifest") == null ? value(response, "Etag") : null;//DLO的ETAG不是内容MD5
+        return new ObjectInfo(length == null ? -1 : Long.parseLong(length.getValue()), eTag,
+                value(response, "Last-Modified"), value(response, "Content-Type"), slo != null && "true".equalsIgnoreCase(slo.getValue()),
+                value(response, UploadService.META_CODEC));
+    }
+
+    /**
+     * 并发下载到文件
+     *
+     * @param fileName
+     * @param file
+     * @return 返回对象信息, 对象不存在返回null
+     * @throws IOException
+     */
+    public ObjectInfo download(String fileName, File file) throws IOException {
+        ObjectInfo info = head(fileName);
+        if (info != null) {
+            try (OutputStream out = new FileOutputStream(file)) {
+                download(fileName, info, out);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * 并发下载并按顺序写出
+     *
+     * @param fileName
+     * @param info     head()的结果
+     * @param out      输出流, 不关闭
+     * @throws IOException
+     */
+    public void download(String fileName, ObjectInfo info, OutputStream out) throws IOException {
+        List<Part> parts = info.isSlo() ? manifestParts(fileName)
+                : rangeParts(SwiftUtil.encode(container, fileName), 0, info.getLength(), info.getETag(), Md5Util.strip(info.getETag()));
+        MessageDigest digest = verify ? DigestUtils.getMd5Digest() : null;
+        Deque<Slot> buffered = new ArrayDeque<>();
+        int next = 0;
+        int written = 0;
+        try {
+            while (next < parts.size() || !buffered.isEmpty()) {
+                while (next < parts.size() && buffered.size() < window) {
+                    if (buffered.isEmpty()) {
+                        buffers.acquire();//没有可写出的分段时等待其他下载释放
+                    } else if (!buffers.tryAcquire()) {//已有分段时不等待,先写出
+                        break;
+                    }
+                    Slot slot = new Slot(parts.get(next++));
+                    try {
+                        slot.future = executor.submit(slot);
+                    } catch (RuntimeException e) {
+                        buffers.release();
+                        throw e;
+                    }
+                    buffered.add(slot);
+                }
+                Slot slot = buffered.peek();
+                byte[] data = slot.future.get();//按顺序等待最前面的分段
+                Part part = parts.get(written++);
+                if (digest != null) {
+                    digest.update(data);
+                    if (part.last) {
+                        Md5Util.check(digest, part.md5);//校验通过才写出最后一段
+                    }
+                }
+                out.write(data);
+                buffered.poll();
+                slot.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("download " + fileName + " interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            for (Slot slot : buffered) {
+                slot.abandon();
+            }
+        }
+    }
+
+    /**
+     * 一个分段的下载任务,持有一个缓冲许可: 写出后释放;放弃时未开始的立即释放,
+     * 进行中的在任务结束时释放,被取消的请求仍在填充缓冲时许可不会提前归还
+     */
+    private class Slot implements Callable<byte[]> {
+
+        private static final int PENDING = 0;
+
+        private static final int RUNNING = 1;
+
+        private static final int DONE = 2;
+
+        private static final int SKIPPED = 3;
+
+        private final Part part;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private volatile boolean abandoned;
+
+        private Future<byte[]> future;
+
+        Slot(Part part) {
+            this.part = part;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            if (!state.compareAndSet(PENDING, RUNNING)) {
+                return null;//已放弃
+            }
+            try {
+                return fetchWithRetry(part);
+            } finally {
+                state.set(DONE);
+                if (abandoned) {
+                    release();
+                }
+            }
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                buffers.release();
+            }
+        }
+
+        void abandon() {
+            abandoned = true;
+            future.cancel(true);
+            if (state.compareAndSet(PENDING, SKIPPED) || state.get() == DONE) {
+                release();
+            }
+        }
+    }
+
+    /**
+     * SLO清单中的分片,大于partSize的分片再按Range切分
+     */
+    private List<Part> manifestParts(String fileName) throws IOException {
+        CloseableHttpResponse response = null;
+        JSONArray manifest;
+        try {
+            response = tokenManager.execute(SwiftMetrics.OP_DOWNLOAD, new HttpGet(), SwiftUtil.encode(container, fileName) + "?multipart-manifest=get");
+            if (response.getStatusLine().getStatusCode() >= 300) {
+                throw new IOException("get manifest " + fileName + " failed: " + response.getStatusLine().getStatusCode());
+            }
+            manifest = JSONArray.fromObject(EntityUtils.toString(response.getEntity(), "UTF-8"));
+        } finally {
+            HttpClientPool.release(response);
+        }
+        List<Part> parts = new ArrayList<>();
+        for (int i = 0; i < manifest.size(); i++) {
+            JSONObject segment = manifest.getJSONObject(i);
+            String name = segment.getString("name");
+            long offset = 0;
+            long length = segment.getLong("bytes");
+            if (segment.has("range")) {//清单中引用分片的一部分
+                String[] range = segment.getString("range").split("-");
+                offset = Long.parseLong(range[0]);
+                length = Long.parseLong(range[1]) - offset + 1;
+            }
+            String eTag = segment.optBoolean("sub_slo") ? null : segment.optString("hash", null);
+            String md5 = segment.has("range") ? null : eTag;//只引用部分内容时无法按分片MD5校验
+            parts.addAll(rangeParts(SwiftUtil.encode(name.startsWith("/") ? name : "/" + name), offset, length, eTag, md5));
+        }
+        return parts;
+    }
+
+    /**
+     * 按partSize切分对象/分片
+     *
+     * @param md5 对象/分片完整内容的MD5, 记录在最后一段上
+     */
+    private List<Part> rangeParts(String path, long offset, long length, String eTag, String md5) {
+        List<Part> parts = new ArrayList<>();
+        long size = partSize * 1024L * 1024;
+        for (long pos = 0; pos < length; pos += size) {
+            parts.add(new Part(path, offset + pos, (int) Math.min(size, length - pos), eTag));
+        }
+        if (!parts.isEmpty()) {
+            parts.get(parts.size() - 1).last = true;
+            parts.get(parts.size() - 1).md5 = md5;
+        }
+        return parts;
+    }
+
+    private byte[] fetchWithRetry(Part part) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return fetch(part);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= retries || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private byte[] fetch(Part part) throws IOException {
+        HttpGet httpGet = new HttpGet();
+        httpGet.addHeader("Range", "bytes=" + part.offset + "-" + (part.offset + part.length - 1));
+        if (part.eTag != null) {
+            httpGet.addHeader("If-Match", part.eTag);
+        }
+        CloseableHttpResponse response = tokenManager.execute(SwiftMetrics.OP_DOWNLOAD, httpGet, part.path);
+        try {
+            int code = response.getStatusLine().getStatusCode();
+            if (code != HttpStatus.SC_PARTIAL_CONTENT) {//200表示Range被忽略,返回的是整个对象
+                throw new IOException("download " + part.path + " failed: " + code);
+            }
+            byte[] data = new byte[part.length];
+            try (InputStream in = response.getEntity().getContent()) {
+                IOUtils.readFully(in, data);
+            }
+            HttpClientPool.release(response);
+            return data;
+        } catch (IOException | RuntimeException e) {
+            HttpClientPool.abort(response);//不读取剩余响应体
+            throw e;
+        }
+    }
+
+    private static String value(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+}
@@ -0,0 +1,300 @@
+package net.ys.service;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.bean.AuthToken;
+import net.ys.util.SwiftMetrics;
+import net.ys.util.SwiftUtil;
+import net.ys.util.TokenManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 非阻塞swift客户端,功能与UploadService相同(上传、边读边分片上传、合并、下载、删除),
+ * 请求体与响应体以Flux<DataBuffer>流式传递,由Netty背压控制读写速度
+ */
+@Service
+public class ReactiveUploadService {
+
+    @Value("${swift.container}")
+    private String container;
+
+    @Value("${swift.segContainer}")
+    private String segContainer;
+
+    @Value("${swift.perLen}")
+    private int perLen;
+
+    @Value("${swift.segmentThreshold:100}")
+    private int segmentThreshold;
+
+    @Value("${swift.http.maxTotal:200}")
+    private int maxConnections;
+
+    @Value("${swift.http.connectTimeout:5000}")
+    private int connectTimeout;
+
+    @Value("${swift.http.socketTimeout:60000}")
+    private int socketTimeout;
+
+    @Resource
+    private TokenManager tokenManager;
+
+    @Resource
+    private SwiftMetrics swiftMetrics;
+
+    private WebClient webClient;
+
+    @PostConstruct
+    public void init() {
+        HttpClient httpClient = HttpClient.create(ConnectionProvider.fixed("swift", maxConnections))
+                .tcpConfiguration(tcp -> tcp
+                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+                        .doOnConnected(conn -> conn.addHandlerLast(new ReadTimeoutHandler(socketTimeout, TimeUnit.MILLISECONDS))));
+        webClient = WebClient.builder().clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+    }
+
+    /**
+     * 当前token,通常直接取缓存,仅在没有有效token时到弹性线程池中认证
+     */
+    private Mono<AuthToken> token() {
+        return Mono.justOrEmpty(tokenManager.peekToken())
+                .switchIfEmpty(Mono.fromCallable(tokenManager::getToken).subscribeOn(Schedulers.elastic()));
+    }
+
+    private Mono<AuthToken> refresh(AuthToken stale) {
+        return Mono.fromCallable(() -> tokenManager.refresh(stale)).subscribeOn(Schedulers.elastic());
+    }
+
+    /**
+     * 无请求体的请求,401时重新认证后重试一次
+     */
+    private Mono<ClientResponse> exchange(HttpMethod method, String path, String range, String ifRange) {
+        return token().flatMap(current -> exchange(method, path, range, ifRange, current)
+                .flatMap(response -> {
+                    if (response.statusCode() != HttpStatus.UNAUTHORIZED) {
+                        return Mono.just(response);
+                    }
+                    return response.bodyToMono(Void.class)
+                            .then(refresh(current))
+                            .flatMap(fresh -> exchange(method, path, range, ifRange, fresh));
+                }));
+    }
+
+    private Mono<ClientResponse> exchange(HttpMethod method, String path, String range, String ifRange, AuthToken current) {
+        WebClient.RequestBodySpec spec = webClient.method(method)
+                .uri(URI.create(tokenManager.storageUrl(current) + path))
+                .header("X-Auth-Token", current.getToken());
+        if (range != null) {
+            spec.header("Range", range);
+            if (ifRange != null) {
+                spec.header("If-Range", ifRange);
+            }
+        }
+        return spec.exchange();
+    }
+
+    /**
+     * 上传
+     *
+     * @param body      请求体
+     * @param length    长度,未知时传-1,以chunked方式发送
+     * @param container 容器
+     * @param storeName 存储全名
+     * @return 返回ETAG
+     */
+    public Mono<String> upload(Flux<DataBuffer> body, long length, String container, String storeName) {
+        String op = segContainer.equals(container) ? SwiftMetrics.OP_SEGMENT_UPLOAD : SwiftMetrics.OP_UPLOAD;
+        long start = System.nanoTime();
+        return token().flatMap(current -> {
+            WebClient.RequestBodySpec spec = webClient.put()
+                    .uri(URI.create(tokenManager.storageUrl(current) + SwiftUtil.encode(container, storeName)))
+                    .header("X-Auth-Token", current.getToken());
+            if (length >= 0) {
+                spec.contentLength(length);
+            }
+            return spec.body(BodyInserters.fromDataBuffers(body)).exchange();
+        }).flatMap(response -> response.bodyToMono(Void.class).then(Mono.defer(() -> {
+            if (response.statusCode().isError()) {
+                return Mono.error(new IOException("upload " + storeName + " failed: " + response.statusCode()));
+            }
+            String eTag = response.headers().asHttpHeaders().getETag();
+            if (eTag == null) {//缺少ETAG的分片无法写入清单,不能当作空结果跳过
+                return Mono.error(new IOException("upload " + storeName + " failed: no etag"));
+            }
+            return Mono.just(eTag.replace("\"", ""));
+        }))).doOnSuccess(eTag -> swiftMetrics.record(op, start, true))
+                .doOnError(e -> swiftMetrics.record(op, start, false));
+    }
+
+    /**
+     * 按大小选择上传方式,超过阈值或长度未知时边读边分片上传
+     *
+     * @param body      请求体
+     * @param length    长度,未知时传-1
+     * @param storeName 存储全名
+     * @return 返回ETAG
+     */
+    public Mono<String> uploadAuto(Flux<DataBuffer> body, long length, String storeName) {
+        if (length < 0 || length > segmentThreshold * 1024L * 1024) {
+            return segmentUpload(body, storeName);
+        }
+        return upload(body, length, container, storeName);
+    }
+
+    /**
+     * 边读边分片上传: 请求体按perLen切成窗口,每个窗口作为一个分片依次上传,全部完成后写入SLO清单
+     *
+     * @param body      请求体
+     * @param storeName 存储全名
+     * @return 返回清单对象的ETAG
+     */
+    public Mono<String> segmentUpload(Flux<DataBuffer> body, String storeName) {
+        long segLen = perLen * 1024L * 1024;
+        List<String> uploaded = new ArrayList<>();
+        return Flux.defer(() -> {
+            AtomicLong position = new AtomicLong();
+            return body.concatMapIterable(buffer -> slice(buffer, position, segLen))
+                    .windowUntil(chunk -> chunk.last, false);
+        }).concatMap(window -> {
+            String tempName = UUID.randomUUID().toString();
+            AtomicLong size = new AtomicLong();
+            Flux<DataBuffer> segment = window.map(chunk -> chunk.buffer).doOnNext(buffer -> size.addAndGet(buffer.readableByteCount()));
+            uploaded.add(tempName);//上传失败时分片可能已写入(如缺少ETAG),一并清理
+            return upload(segment, -1, segContainer, tempName).map(eTag -> {
+                JSONObject object = new JSONObject();
+                object.put("path", segContainer + "/" + tempName);
+                object.put("etag", eTag);
+                object.put("size_bytes", size.get());
+                return object;
+            });
+        }).collectList()
+                .flatMap(segments -> segments.isEmpty()
+                        ? upload(Flux.empty(), 0, container, storeName)
+                        : merge(storeName, JSONArray.fromObject(segments).toString()))
+                .onErrorResume(e -> Flux.fromIterable(uploaded)
+                        .flatMap(name -> delete(segContainer, name).onErrorResume(ex -> Mono.empty()))
+                        .then(Mono.error(e)));//清理已上传的分片
+    }
+
+    /**
+     * 分片中的一段数据
+     */
+    private static class Chunk {
+
+        final DataBuffer buffer;
+
+        final boolean last;//是否为分片的最后一段
+
+        Chunk(DataBuffer buffer, boolean last) {
+            this.buffer = buffer;
+            this.last = last;
+        }
+    }
+
+    /**
+     * 按分片边界切开跨界的buffer,使每段只属于一个分片;切片共享原buffer,retain后释放原buffer
+     */
+    private List<Chunk> slice(DataBuffer buffer, AtomicLong position, long segLen) {
+        List<Chunk> chunks = new ArrayList<>();
+        int remaining = buffer.readableByteCount();
+        long room = segLen - position.get() % segLen;
+        if (remaining <= room) {
+            position.addAndGet(remaining);
+            chunks.add(new Chunk(buffer, remaining == room));
+            return chunks;
+        }
+        int offset = buffer.readPosition();
+        while (remaining > 0) {
+            int len = (int) Math.min(remaining, segLen - position.get() % segLen);
+            DataBuffer slice = DataBufferUtils.retain(buffer.slice(offset, len));
+            position.addAndGet(len);
+            chunks.add(new Chunk(slice, position.get() % segLen == 0));
+            offset += len;
+            remaining -= len;
+        }
+        DataBufferUtils.release(buffer);
+        return chunks;
+    }
+
+    /**
+     * 合并文件
+     *
+     * @param tempName 存储全名
+     * @param data     SLO清单
+     * @return 返回清单对象的ETAG
+     */
+    public Mono<String> merge(String tempName, String data) {
+        long start = System.nanoTime();
+        return token().flatMap(current -> webClient.put()
+                .uri(URI.create(tokenManager.storageUrl(current) + SwiftUtil.encode(container, tempName) + "?multipart-manifest=put"))
+                .header("X-Auth-Token", current.getToken())
+                .syncBody(data)
+                .exchange())
+                .flatMap(response -> response.bodyToMono(Void.class).then(Mono.defer(() -> {
+                    if (response.statusCode().isError()) {
+                        return Mono.error(new IOException("manifest " + tempName + " rejected: " + response.statusCode()));
+                    }
+                    return Mono.justOrEmpty(response.headers().asHttpHeaders().getETag()).defaultIfEmpty("");
+                }))).doOnSuccess(eTag -> swiftMetrics.record(SwiftMetrics.OP_MERGE, start, true))
+                .doOnError(e -> swiftMetrics.record(SwiftMetrics.OP_MERGE, start, false));
+    }
+
+    /**
+     * 下载文件,转发Range/If-Range;响应体需由调用方消费
+     *
+     * @param fileName
+     * @param range    Range请求头,可为null
+     * @param ifRange  If-Range请求头,可为null
+     */
+    public Mono<ClientResponse> download(String fileName, String range, String ifRange) {
+        long start = System.nanoTime();
+        return exchange(HttpMethod.GET, SwiftUtil.encode(container, fileName), range, ifRange)
+                .doOnSuccess(response -> swiftMetrics.record(SwiftMetrics.OP_DOWNLOAD, start, !response.statusCode().isError()))
+                .doOnError(e -> swiftMetrics.record(SwiftMetrics.OP_DOWNLOAD, start, false));
+    }
+
+    /**
+     * 删除文件
+     *
+     * @param containerName
+     * @param fileName
+     * @return 返回HTTP状态码
+     */
+    public Mono<Integer> delete(String containerName, String fileName) {
+        long start = System.nanoTime();
+        return exchange(HttpMethod.DELETE, SwiftUtil.encode(containerName, fileName), null, null)
+                .flatMap(response -> response.bodyToMono(Void.class).thenReturn(response.rawStatusCode()))
+                .doOnSuccess(code -> swiftMetrics.record(SwiftMetrics.OP_DELETE, start, code < 300))
+                .doOnError(e -> swiftMetrics.record(SwiftMetrics.OP_DELETE, start, false));
+    }
+
+    public String getContainer() {
+        return container;
+    }
+}
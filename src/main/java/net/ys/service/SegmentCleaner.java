@@ -0,0 +1,247 @@
+package net.ys.service;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.bean.BulkResult;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpStatus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片异步清理: 每个待删除项先写入本地队列目录再由后台线程删除,失败按指数退避重试,
+ * 重启后从队列目录恢复未完成的任务
+ */
+@Component
+public class SegmentCleaner {
+
+    private static final String TYPE_REMOTE = "remote";
+
+    private static final String TYPE_LOCAL = "local";
+
+    private static final String TYPE_BULK = "bulk";
+
+    @Value("${swift.cleanup.dir:${java.io.tmpdir}/swift-cleanup}")
+    private String queueDir;
+
+    @Value("${swift.cleanup.threads:4}")
+    private int threads;
+
+    @Value("${swift.cleanup.retryInterval:1000}")
+    private long retryInterval;
+
+    @Value("${swift.cleanup.maxRetryInterval:300000}")
+    private long maxRetryInterval;
+
+    @Resource
+    private UploadService uploadService;
+
+    @Resource
+    private BulkService bulkService;
+
+    private ScheduledExecutorService executor;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    @PostConstruct
+    public void init() throws IOException {
+        AtomicInteger seq = new AtomicInteger();
+        executor = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "swift-cleanup-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        File dir = new File(queueDir);
+        FileUtils.forceMkdir(dir);
+        File[] tasks = dir.listFiles((d, name) -> name.endsWith(".json"));
+        if (tasks != null) {
+            for (File task : tasks) {//恢复上次未完成的任务
+                pending.incrementAndGet();
+                executor.execute(() -> run(task));
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 异步删除swift上的对象
+     *
+     * @param containerName
+     * @param fileName
+     * @throws IOException
+     */
+    public void deleteRemote(String containerName, String fileName) throws IOException {
+        JSONObject task = new JSONObject();
+        task.put("type", TYPE_REMOTE);
+        task.put("container", containerName);
+        task.put("name", fileName);
+        submit(task);
+    }
+
+    /**
+     * 异步批量删除swift上的多个对象,作为一个任务用bulk-delete执行,重试时只删除失败项
+     *
+     * @param containerName
+     * @param fileNames
+     * @throws IOException
+     */
+    public void deleteRemote(String containerName, List<String> fileNames) throws IOException {
+        if (fileNames.isEmpty()) {
+            return;
+        }
+        JSONArray paths = new JSONArray();
+        for (String fileName : fileNames) {
+            paths.add(containerName + "/" + fileName);
+        }
+        JSONObject task = new JSONObject();
+        task.put("type", TYPE_BULK);
+        task.put("paths", paths);
+        submit(task);
+    }
+
+    /**
+     * 延迟批量删除swift上的多个对象,如直传分片:到期前未取消则删除,任务落盘,重启后仍按原定时间执行
+     *
+     * @param containerName
+     * @param fileNames
+     * @param delay         延迟(毫秒)
+     * @return 任务ID, 用于cancel
+     * @throws IOException
+     */
+    public String deleteRemoteLater(String containerName, List<String> fileNames, long delay) throws IOException {
+        JSONArray paths = new JSONArray();
+        for (String fileName : fileNames) {
+            paths.add(containerName + "/" + fileName);
+        }
+        JSONObject task = new JSONObject();
+        task.put("type", TYPE_BULK);
+        task.put("paths", paths);
+        task.put("not_before", System.currentTimeMillis() + delay);
+        return submit(task);
+    }
+
+    /**
+     * 取消尚未执行的任务
+     *
+     * @param id deleteRemoteLater返回的任务ID
+     * @return 是否取消成功, 任务已执行或不存在返回false
+     */
+    public boolean cancel(String id) {
+        if (!id.matches("[0-9a-zA-Z\\-]+")) {
+            throw new IllegalArgumentException("invalid task id: " + id);
+        }
+        return new File(queueDir, id + ".json").delete();//执行时读不到任务文件即结束
+    }
+
+    /**
+     * 异步删除本地文件
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void deleteLocal(File file) throws IOException {
+        JSONObject task = new JSONObject();
+        task.put("type", TYPE_LOCAL);
+        task.put("path", file.getAbsolutePath());
+        submit(task);
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    private String submit(JSONObject task) throws IOException {
+        task.put("attempts", 0);
+        String id = UUID.randomUUID().toString();
+        File file = new File(queueDir, id + ".json");
+        write(file, task);
+        pending.incrementAndGet();
+        executor.execute(() -> run(file));
+        return id;
+    }
+
+    private void run(File file) {
+        JSONObject task;
+        try {
+            task = JSONObject.fromObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            pending.decrementAndGet();
+            file.delete();//损坏或已取消的任务文件
+            return;
+        }
+        long wait = task.optLong("not_before") - System.currentTimeMillis();
+        if (wait > 0) {//延迟任务未到期
+            executor.schedule(() -> run(file), wait, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        boolean done;
+        try {
+            if (TYPE_LOCAL.equals(task.getString("type"))) {
+                File local = new File(task.getString("path"));
+                done = !local.exists() || local.delete();
+            } else if (TYPE_BULK.equals(task.getString("type"))) {
+                List<String> paths = new ArrayList<>();
+                JSONArray array = task.getJSONArray("paths");
+                for (int i = 0; i < array.size(); i++) {
+                    paths.add(array.getString(i));
+                }
+                BulkResult result = bulkService.deletePaths(paths);
+                done = result.isSuccess();
+                if (!done) {
+                    task.put("paths", JSONArray.fromObject(result.getFailed()));
+                }
+            } else {
+                int code = uploadService.delete(task.getString("container"), task.getString("name"));
+                done = code < 300 || code == HttpStatus.SC_NOT_FOUND;
+            }
+        } catch (Exception e) {
+            done = false;
+        }
+
+        if (done) {
+            pending.decrementAndGet();
+            file.delete();
+            return;
+        }
+
+        int attempts = task.getInt("attempts") + 1;
+        task.put("attempts", attempts);
+        try {
+            write(file, task);
+        } catch (IOException e) {
+        }
+        long delay = Math.min(retryInterval << Math.min(attempts - 1, 20), maxRetryInterval);
+        executor.schedule(() -> run(file), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 先写临时文件再改名,保证任务文件完整
+     */
+    private void write(File file, JSONObject task) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(temp.toPath(), task.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,45 @@
+package net.ys.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 去重模式下已确认存在于segContainer的分片(内容哈希 -> ETAG),命中时不再HEAD;
+ * 按最近使用淘汰,只作为HEAD的缓存,不命中时仍以swift为准
+ */
+@Component
+public class SegmentIndex {
+
+    @Value("${swift.dedup.indexSize:100000}")
+    private int maxEntries;
+
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    /**
+     * @param hash 分片内容哈希
+     * @return 分片ETAG, 未知返回null
+     */
+    public synchronized String get(String hash) {
+        return entries.get(hash);
+    }
+
+    public synchronized void put(String hash, String eTag) {
+        entries.put(hash, eTag);
+    }
+
+    public synchronized void remove(String hash) {
+        entries.remove(hash);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
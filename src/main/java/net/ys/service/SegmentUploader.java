@@ -0,0 +1,135 @@
+package net.ys.service;
+
+import net.ys.bean.SegFile;
+import net.ys.util.VirtualThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 分片并发上传,threads即全局最大并发数(平台线程数,虚拟线程模式下为信号量许可数)
+ */
+@Component
+public class SegmentUploader {
+
+    @Value("${swift.upload.threads:8}")
+    private int threads;
+
+    @Value("${swift.virtualThreads:false}")
+    private boolean virtualThreads;//虚拟线程模式下threads为信号量许可数
+
+    @Value("${swift.upload.retries:3}")
+    private int retries;
+
+    @Value("${swift.upload.retryInterval:1000}")
+    private long retryInterval;
+
+    @Value("${swift.segContainer}")
+    private String segContainer;
+
+    @Resource
+    private AdmissionControl admissionControl;
+
+    private ExecutorService executor;
+
+    /**
+     * 单个分片的上传动作,返回ETAG,返回null视为失败
+     */
+    public interface SegmentTask {
+        String upload(SegFile segFile) throws IOException;
+    }
+
+    @PostConstruct
+    public void init() {
+        executor = VirtualThreads.newExecutor(virtualThreads, threads, "swift-segment-");
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 并发上传全部分片,任一分片重试后仍失败则取消其余分片;同时进行的分片上传数受准入控制限制
+     *
+     * @param segFiles
+     * @param task
+     * @return 按分片索引号排序的ETAG
+     * @throws AdmissionControl.RejectedException 同时进行的分片上传过多
+     * @throws IOException
+     */
+    public String[] uploadAll(List<SegFile> segFiles, SegmentTask task) throws IOException {
+        try (AdmissionControl.Permit permit = admissionControl.acquire(AdmissionControl.TYPE_SPLIT_UPLOAD)) {
+            return uploadSegments(segFiles, task);
+        }
+    }
+
+    private String[] uploadSegments(List<SegFile> segFiles, SegmentTask task) throws IOException {
+        int size = 0;
+        for (SegFile segFile : segFiles) {
+            size = Math.max(size, segFile.getIndex() + 1);
+        }
+        String[] eTags = new String[size];
+
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (SegFile segFile : segFiles) {
+            futures.add(completionService.submit(() -> {
+                eTags[segFile.getIndex()] = uploadWithRetry(segFile, task);
+                return null;
+            }));
+        }
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                completionService.take().get();
+            }
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("segment upload interrupted");
+        } catch (ExecutionException e) {
+            cancel(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("segment upload failed", cause);
+        }
+        return eTags;
+    }
+
+    private String uploadWithRetry(SegFile segFile, SegmentTask task) throws IOException, InterruptedException {
+        IOException last = null;
+        for (int i = 0; i <= retries; i++) {
+            if (i > 0) {
+                Thread.sleep(retryInterval * i);
+            }
+            admissionControl.throttle(segContainer, segFile.getLength());//按segContainer限速
+            try {
+                String eTag = task.upload(segFile);
+                if (eTag != null) {
+                    return eTag;
+                }
+                last = new IOException("segment " + segFile.getIndex() + " upload rejected");
+            } catch (IOException e) {
+                last = e;
+            }
+        }
+        throw last;
+    }
+
+    private void cancel(List<Future<Void>> futures) {
+        for (Future<Void> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
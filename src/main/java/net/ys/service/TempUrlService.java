@@ -0,0 +1,264 @@
+package net.ys.service;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.bean.AuthToken;
+import net.ys.bean.TempUrl;
+import net.ys.util.HttpClientPool;
+import net.ys.util.SwiftMetrics;
+import net.ys.util.SwiftUtil;
+import net.ys.util.TokenManager;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * swift TempURL签名: sig = HMAC(Temp-URL-Key, 方法\n过期时间\n/v1/账户/容器/对象),
+ * 客户端凭签名地址直接上传下载,数据不经过本服务;分片直传后由本服务写入SLO清单,
+ * 只接受签发时记录的 存储名-上传ID,未完成的分片在地址过期后由SegmentCleaner删除
+ */
+@Service
+public class TempUrlService {
+
+    public static final int MAX_SEGMENTS = 1000;//swift默认max_manifest_segments
+
+    private static final long CANCEL_MARGIN = 60000;//清理任务执行前留出的时间,避免写入清单时分片正被删除
+
+    @Value("${swift.container}")
+    private String container;
+
+    @Value("${swift.segContainer}")
+    private String segContainer;
+
+    @Value("${swift.tempUrl.key:}")
+    private String configuredKey;//为空时读取账户的X-Account-Meta-Temp-URL-Key
+
+    @Value("${swift.tempUrl.digest:sha256}")
+    private String digest;//sha1或sha256,取决于swift的tempurl_allowed_digests
+
+    @Value("${swift.tempUrl.ttl:3600}")
+    private long defaultTtl;//秒
+
+    @Value("${swift.tempUrl.maxTtl:86400}")
+    private long maxTtl;//秒
+
+    @Value("${swift.tempUrl.baseUrl:}")
+    private String baseUrl;//客户端访问swift的scheme://host:port,为空时使用存储地址
+
+    @Value("${swift.tempUrl.keyRefresh:300000}")
+    private long keyRefresh;//账户密钥缓存时长(毫秒)
+
+    @Value("${swift.tempUrl.completeWindow:3600000}")
+    private long completeWindow;//分片地址过期后仍可写入清单的时长(毫秒),之后未完成的分片被删除
+
+    @Resource
+    private TokenManager tokenManager;
+
+    @Resource
+    private UploadService uploadService;
+
+    @Resource
+    private SegmentCleaner segmentCleaner;
+
+    private final ConcurrentHashMap<String, DirectUpload> uploads = new ConcurrentHashMap<>();//上传ID -> 签发记录,重启后丢失,分片由清理任务删除
+
+    private volatile String accountKey;
+
+    private volatile long keyTime;
+
+    /**
+     * 对象上传地址
+     *
+     * @param storeName 存储全名
+     * @param ttl       有效期(秒), 不大于0时使用默认值
+     * @return
+     * @throws IOException
+     */
+    public TempUrl uploadUrl(String storeName, long ttl) throws IOException {
+        return sign("PUT", container, storeName, ttl, null);
+    }
+
+    /**
+     * 对象下载地址,浏览器按storeName保存
+     *
+     * @param storeName 存储全名
+     * @param ttl       有效期(秒), 不大于0时使用默认值
+     * @return
+     * @throws IOException
+     */
+    public TempUrl downloadUrl(String storeName, long ttl) throws IOException {
+        return sign("GET", container, storeName, ttl, "&filename=" + SwiftUtil.encode(storeName));
+    }
+
+    /**
+     * 分片上传地址,分片名为 uploadId/序号;记录存储名与上传ID,并登记到期后的分片清理
+     *
+     * @param storeName 存储全名
+     * @param uploadId  上传ID
+     * @param count     分片数
+     * @param ttl       有效期(秒), 不大于0时使用默认值
+     * @return 按序号排列的地址
+     * @throws IOException
+     */
+    public List<TempUrl> segmentUrls(String storeName, String uploadId, int count, long ttl) throws IOException {
+        if (count <= 0 || count > MAX_SEGMENTS) {
+            throw new IllegalArgumentException("segment count must be 1-" + MAX_SEGMENTS);
+        }
+        List<TempUrl> urls = new ArrayList<>(count);
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            urls.add(sign("PUT", segContainer, segmentName(uploadId, i), ttl, null));
+            names.add(segmentName(uploadId, i));
+        }
+        long deadline = urls.get(0).getExpires() * 1000 + completeWindow;
+        String task = segmentCleaner.deleteRemoteLater(segContainer, names, deadline - System.currentTimeMillis());
+        uploads.put(uploadId, new DirectUpload(storeName, count, deadline, task));
+        pruneExpired();
+        return urls;
+    }
+
+    /**
+     * 分片直传完成后写入SLO清单,swift校验各分片的ETAG与大小
+     *
+     * @param storeName 存储全名, 须与签发分片地址时记录的一致
+     * @param uploadId  上传ID
+     * @param parts     按序号排列的分片, 每项含etag与size
+     * @return 清单对象的ETAG, 失败返回null
+     * @throws IOException
+     */
+    public String complete(String storeName, String uploadId, JSONArray parts) throws IOException {
+        DirectUpload upload = uploads.get(uploadId);
+        if (upload == null || !upload.storeName.equals(storeName) || System.currentTimeMillis() >= upload.deadline - CANCEL_MARGIN) {
+            throw new IllegalArgumentException("unknown or expired upload: " + uploadId);
+        }
+        if (parts.isEmpty() || parts.size() > upload.count) {
+            throw new IllegalArgumentException("segment count must be 1-" + upload.count);
+        }
+        if (!uploads.remove(uploadId, upload)) {//同一上传同时只允许一个请求写入清单
+            throw new IllegalArgumentException("upload " + uploadId + " is being completed");
+        }
+        JSONArray data = new JSONArray();
+        for (int i = 0; i < parts.size(); i++) {
+            JSONObject part = parts.getJSONObject(i);
+            JSONObject object = new JSONObject();
+            object.put("path", segContainer + "/" + segmentName(uploadId, i));
+            object.put("etag", part.getString("etag"));
+            object.put("size_bytes", part.getLong("size"));
+            data.add(object);
+        }
+        String eTag;
+        try {
+            eTag = uploadService.mergeManifest(storeName, data.toString());
+        } catch (IOException e) {
+            uploads.put(uploadId, upload);//可重试
+            throw e;
+        }
+        if (eTag == null) {
+            uploads.put(uploadId, upload);
+            return null;
+        }
+        segmentCleaner.cancel(upload.task);//分片已由清单引用
+        return eTag;
+    }
+
+    private void pruneExpired() {
+        long now = System.currentTimeMillis();
+        uploads.values().removeIf(upload -> now >= upload.deadline);
+    }
+
+    /**
+     * 签发的分片直传
+     */
+    private static class DirectUpload {
+
+        private final String storeName;
+
+        private final int count;//签发的分片数
+
+        private final long deadline;//清理任务执行时间点(毫秒)
+
+        private final String task;//清理任务ID
+
+        DirectUpload(String storeName, int count, long deadline, String task) {
+            this.storeName = storeName;
+            this.count = count;
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+
+    private String segmentName(String uploadId, int index) {
+        if (!uploadId.matches("[0-9a-zA-Z\\-]+")) {
+            throw new IllegalArgumentException("invalid upload id: " + uploadId);
+        }
+        return uploadId + "/" + index;
+    }
+
+    /**
+     * 签名
+     *
+     * @param method    请求方法
+     * @param container 容器
+     * @param name      对象名
+     * @param ttl       有效期(秒)
+     * @param extra     追加的查询参数, 可为null
+     * @return
+     * @throws IOException
+     */
+    public TempUrl sign(String method, String container, String name, long ttl, String extra) throws IOException {
+        if (name.isEmpty() || name.startsWith("/") || name.contains("..")) {
+            throw new IllegalArgumentException("invalid object name: " + name);
+        }
+        long expires = System.currentTimeMillis() / 1000 + (ttl > 0 ? Math.min(ttl, maxTtl) : defaultTtl);
+        AuthToken token = tokenManager.getToken();
+        URI storage = URI.create(tokenManager.storageUrl(token));
+        String path = storage.getRawPath() + "/" + container + "/" + name;//签名使用未编码的路径
+        HmacAlgorithms algorithm = "sha1".equalsIgnoreCase(digest) ? HmacAlgorithms.HMAC_SHA_1 : HmacAlgorithms.HMAC_SHA_256;
+        String sig = new HmacUtils(algorithm, key()).hmacHex(method + "\n" + expires + "\n" + path);
+        String base = baseUrl.isEmpty() ? storage.getScheme() + "://" + storage.getRawAuthority() : baseUrl;
+        String url = base + storage.getRawPath() + SwiftUtil.encode(container, name)
+                + "?temp_url_sig=" + sig + "&temp_url_expires=" + expires + (extra == null ? "" : extra);
+        return new TempUrl(method, url, expires);
+    }
+
+    /**
+     * 签名密钥: 优先使用配置,否则读取账户元数据并缓存keyRefresh毫秒
+     */
+    private String key() throws IOException {
+        if (!configuredKey.isEmpty()) {
+            return configuredKey;
+        }
+        String key = accountKey;
+        if (key != null && System.currentTimeMillis() - keyTime < keyRefresh) {
+            return key;
+        }
+        CloseableHttpResponse response = null;
+        try {
+            response = tokenManager.execute(SwiftMetrics.OP_HEAD, new HttpHead(), "");
+            Header header = response.getFirstHeader("X-Account-Meta-Temp-URL-Key");
+            if (response.getStatusLine().getStatusCode() >= 300 || header == null) {
+                throw new IOException("Temp-URL-Key is not set on the swift account");
+            }
+            accountKey = header.getValue();
+            keyTime = System.currentTimeMillis();
+            return accountKey;
+        } finally {
+            HttpClientPool.release(response);
+        }
+    }
+
+    public String getContainer() {
+        return container;
+    }
+}
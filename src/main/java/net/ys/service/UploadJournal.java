@@ -0,0 +1,140 @@
+package net.ys.service;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.bean.SegFile;
+import net.ys.bean.UploadSession;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分片上传日志: 每个会话一个json文件,记录各分片的起始点、长度与ETAG,用于失败后续传
+ */
+@Component
+public class UploadJournal {
+
+    @Value("${swift.journal.dir:${java.io.tmpdir}/swift-journal}")
+    private String journalDir;
+
+    private final ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();//按会话串行写入,不用synchronized以免虚拟线程写文件时占住载体线程
+
+    @PostConstruct
+    public void init() throws IOException {
+        FileUtils.forceMkdir(new File(journalDir));
+    }
+
+    /**
+     * 保存会话,每个分片上传成功后调用
+     *
+     * @param session
+     * @throws IOException
+     */
+    public void save(UploadSession session) throws IOException {
+        ReentrantLock lock = locks.computeIfAbsent(session.getId(), id -> new ReentrantLock());
+        lock.lock();//分片并发上传时串行生成并写入,后写入的快照总包含之前已确认的ETAG
+        try {
+            JSONArray segments = new JSONArray();
+            for (SegFile segFile : session.getSegFiles()) {
+                JSONObject object = new JSONObject();
+                object.put("name", segFile.getTempName());
+                object.put("index", segFile.getIndex());
+                object.put("offset", segFile.getStartPoint());
+                object.put("length", segFile.getLength());
+                if (segFile.getETag() != null) {
+                    object.put("etag", segFile.getETag());
+                }
+                segments.add(object);
+            }
+            JSONObject object = new JSONObject();
+            object.put("id", session.getId());
+            object.put("src_path", session.getSrcPath());
+            object.put("src_length", session.getSrcLength());
+            object.put("src_modified", session.getSrcModified());
+            object.put("store_name", session.getStoreName());
+            object.put("segments", segments);
+
+            File file = file(session.getId());
+            File temp = new File(journalDir, session.getId() + ".tmp");
+            Files.write(temp.toPath(), object.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 读取会话
+     *
+     * @param id 会话ID
+     * @return 会话, 不存在返回null
+     * @throws IOException
+     */
+    public UploadSession load(String id) throws IOException {
+        File file = file(id);
+        if (!file.exists()) {
+            return null;
+        }
+        JSONObject object = JSONObject.fromObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        List<SegFile> segFiles = new ArrayList<>();
+        JSONArray segments = object.getJSONArray("segments");
+        for (int i = 0; i < segments.size(); i++) {
+            JSONObject segment = segments.getJSONObject(i);
+            SegFile segFile = new SegFile(segment.getString("name"), segment.getInt("index"), segment.getLong("offset"), segment.getLong("length"));
+            if (segment.has("etag")) {
+                segFile.setETag(segment.getString("etag"));
+            }
+            segFiles.add(segFile);
+        }
+        return new UploadSession(object.getString("id"), object.getString("src_path"), object.getLong("src_length"),
+                object.getLong("src_modified"), object.getString("store_name"), segFiles);
+    }
+
+    /**
+     * 未完成的会话
+     *
+     * @return
+     * @throws IOException
+     */
+    public List<UploadSession> list() throws IOException {
+        List<UploadSession> sessions = new ArrayList<>();
+        File[] files = new File(journalDir).listFiles((d, name) -> name.endsWith(".json"));
+        if (files != null) {
+            for (File file : files) {
+                UploadSession session = load(file.getName().substring(0, file.getName().length() - 5));
+                if (session != null) {
+                    sessions.add(session);
+                }
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * 上传完成后删除会话
+     *
+     * @param id
+     */
+    public void remove(String id) {
+        file(id).delete();
+        locks.remove(id);
+    }
+
+    private File file(String id) {
+        if (!id.matches("[0-9a-zA-Z\\-]+")) {
+            throw new IllegalArgumentException("invalid session id: " + id);
+        }
+        return new File(journalDir, id + ".json");
+    }
+}
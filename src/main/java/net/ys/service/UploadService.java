@@ -3,23 +3,42 @@ package net.ys.service;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import net.ys.bean.SegFile;
+import net.ys.bean.SwiftObject;
+import net.ys.bean.UploadSession;
+import net.ys.util.FastCdc;
+import net.ys.util.FileSegmentEntity;
+import net.ys.util.GzipCompressingInputStream;
+import net.ys.util.HttpClientPool;
+import net.ys.util.Md5Util;
+import net.ys.util.SwiftMetrics;
+import net.ys.util.SwiftUtil;
+import net.ys.util.TokenManager;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.InputStreamEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
 import java.io.*;
-import java.math.BigDecimal;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -29,14 +48,15 @@ import java.util.UUID;
 @Service
 public class UploadService {
 
-    @Value("${swift.url}")
-    private String swiftUrl;
+    public static final String SEGMENT_MODE_STREAM = "stream";
 
-    @Value("${swift.user}")
-    private String swiftUser;
+    public static final String CHUNKING_CDC = "cdc";
 
-    @Value("${swift.pass}")
-    private String swiftPass;
+    public static final String META_CODEC = "X-Object-Meta-Codec";//压缩存储的对象记录编码
+
+    public static final String META_LENGTH = "X-Object-Meta-Orig-Length";//压缩前长度
+
+    public static final String CODEC_GZIP = "gzip";
 
     @Value("${swift.srcFilePath}")
     private String srcFilePath;
@@ -53,31 +73,74 @@ public class UploadService {
     @Value("${swift.perLen}")
     private int perLen;
 
-    String storageUrl;
-    Header authToken;
+    @Value("${swift.segmentThreshold:100}")
+    private int segmentThreshold;//超过此大小(MB)的上传自动走分片
+
+    @Value("${swift.journal.verify:true}")
+    private boolean journalVerify;//续传时是否HEAD确认已上传分片
+
+    @Value("${swift.segmentMode:file}")
+    private String segmentMode;//file:先切分成临时文件再上传 stream:直接读取源文件区间上传
+
+    @Value("${swift.verify:true}")
+    private boolean verify;//上传边发送边计算MD5并与返回的ETAG比对,下载边读取边校验
+
+    @Value("${swift.compress.enabled:false}")
+    private boolean compress;
+
+    @Value("${swift.compress.level:6}")
+    private int compressLevel;
+
+    @Value("#{'${swift.compress.extensions:log,txt,csv,json,xml,html,sql}'.split(',')}")
+    private List<String> compressExtensions;
+
+    @Value("#{'${swift.compress.contentTypes:text/,application/json,application/xml}'.split(',')}")
+    private List<String> compressContentTypes;
+
+    @Value("${swift.chunking:fixed}")
+    private String chunking;//fixed:按perLen等长切分 cdc:按内容定义切分点(FastCDC),文件局部修改后其余分片不变
+
+    @Value("${swift.cdc.minSize:2048}")
+    private int cdcMinSize;//KB
+
+    @Value("${swift.cdc.avgSize:8192}")
+    private int cdcAvgSize;//KB
+
+    @Value("${swift.cdc.maxSize:32768}")
+    private int cdcMaxSize;//KB
+
+    @Value("${swift.dedup.enabled:false}")
+    private boolean dedup;//分片按内容SHA-256命名,已存在的分片不再上传,分片被多个对象共用因此不再删除
+
+    @Resource
+    private TokenManager tokenManager;
+
+    @Resource
+    private SegmentUploader segmentUploader;
+
+    @Resource
+    private SegmentCleaner segmentCleaner;
+
+    @Resource
+    private UploadJournal uploadJournal;
+
+    @Resource
+    private SwiftMetrics swiftMetrics;
+
+    @Resource
+    private SegmentIndex segmentIndex;
 
     public void genUrlAndToken() throws IOException {
-        if (storageUrl == null || authToken == null) {
-            CloseableHttpClient httpClient = null;
-            try {
-                httpClient = HttpClients.createDefault();
-                HttpGet req = new HttpGet(swiftUrl);
-                req.addHeader("X-Storage-User", swiftUser);
-                req.addHeader("X-Storage-Pass", swiftPass);
-                HttpResponse rsp = httpClient.execute(req);
-                storageUrl = rsp.getFirstHeader("X-Storage-Url").getValue();
-                authToken = rsp.getFirstHeader("X-Auth-Token");
-            } finally {
-                if (httpClient != null) {
-                    httpClient.close();
-                }
-            }
-        }
+        tokenManager.getToken();
     }
 
     public String upload(InputStream stream, String container, String storeName) throws IOException {
+        return upload(stream, -1, container, storeName);
+    }
+
+    public String upload(InputStream stream, long length, String container, String storeName) throws IOException {
         genUrlAndToken();
-        return uploadFile(stream, container, storeName);
+        return uploadFile(stream, length, container, storeName);
     }
 
     /**
@@ -87,30 +150,93 @@ public class UploadService {
      * @throws IOException
      */
     public String uploadFile(InputStream stream, String container, String storeName) throws IOException {
-        CloseableHttpClient httpClient = null;
+        return uploadFile(stream, -1, container, storeName);
+    }
+
+    /**
+     * 文件流上传,边读边发,不在内存中缓存文件内容
+     *
+     * @param stream 文件流
+     * @param length 长度,未知时传-1,以chunked方式发送
+     * @throws IOException
+     */
+    public String uploadFile(InputStream stream, long length, String container, String storeName) throws IOException {
+        return uploadEntity(new InputStreamEntity(stream, length), container, storeName);
+    }
+
+    /**
+     * 以指定请求体上传
+     *
+     * @param entity    请求体
+     * @param container 容器
+     * @param storeName 存储全名
+     * @return 返回ETAG, 失败返回null
+     * @throws IOException
+     */
+    public String uploadEntity(HttpEntity entity, String container, String storeName) throws IOException {
+        return uploadEntity(entity, container, storeName, null);
+    }
+
+    /**
+     * 以指定请求体上传,开启校验时边发送边计算MD5,与返回的ETAG不一致时抛出异常
+     *
+     * @param entity    请求体
+     * @param container 容器
+     * @param storeName 存储全名
+     * @param md5       预先算出的内容MD5, 作为ETag请求头由swift校验(不一致返回422), 未知传null
+     * @return 返回ETAG, 失败返回null
+     * @throws IOException
+     */
+    public String uploadEntity(HttpEntity entity, String container, String storeName, String md5) throws IOException {
+        return uploadEntity(entity, container, storeName, md5, null);
+    }
+
+    /**
+     * 删除校验不通过的对象,请求失败时交给SegmentCleaner在后台重试
+     */
+    private void deleteCorrupt(String container, String storeName) {
         try {
-            httpClient = HttpClients.createDefault();
-            HttpPut httpPut = new HttpPut(storageUrl + "/" + container + "/" + storeName);
-            httpPut.setHeader(authToken);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            byte[] bytes = new byte[2048];
-            int len;
-            while ((len = stream.read(bytes)) > 0) {
-                bos.write(bytes, 0, len);
+            int code = delete(container, storeName);
+            if (code < 300 || code == 404) {
+                return;
             }
-            bos.close();
+        } catch (IOException e) {//改为后台删除
+        }
+        try {
+            segmentCleaner.deleteRemote(container, storeName);
+        } catch (IOException e) {//任务无法写入时只能由上传失败的异常提示调用方
+        }
+    }
 
-            httpPut.setEntity(new InputStreamEntity(new ByteArrayInputStream(bos.toByteArray())));
-            HttpResponse response = httpClient.execute(httpPut);
+    /**
+     * 以指定请求体上传
+     *
+     * @param headers 附加请求头, 如X-Object-Meta-*, 可为null
+     */
+    public String uploadEntity(HttpEntity entity, String container, String storeName, String md5, Map<String, String> headers) throws IOException {
+        CloseableHttpResponse response = null;
+        try {
+            HttpPut httpPut = new HttpPut();
+            addHeaders(httpPut, headers);
+            Md5Util.Md5Entity md5Entity = verify ? new Md5Util.Md5Entity(entity) : null;
+            httpPut.setEntity(md5Entity == null ? entity : md5Entity);
+            if (md5 != null) {
+                httpPut.addHeader("ETag", md5);
+            }
+            String op = segContainer.equals(container) ? SwiftMetrics.OP_SEGMENT_UPLOAD : SwiftMetrics.OP_UPLOAD;
+            response = tokenManager.execute(op, httpPut, SwiftUtil.encode(container, storeName));
             int code = response.getStatusLine().getStatusCode();
             if (code < 300) {
-                return response.getFirstHeader("Etag").getValue();
+                String eTag = response.getFirstHeader("Etag").getValue();
+                if (md5Entity != null && md5Entity.getMd5() != null && !md5Entity.getMd5().equalsIgnoreCase(Md5Util.strip(eTag))) {
+                    deleteCorrupt(container, storeName);//不能留下损坏的对象供之后读取
+                    throw new IOException("etag mismatch for " + storeName + ": sent " + md5Entity.getMd5() + ", stored " + eTag);
+                }
+                return eTag;
             }
             return null;
         } finally {
-            if (httpClient != null) {
-                httpClient.close();
-            }
+            HttpClientPool.release(response);
         }
     }
 
@@ -120,99 +246,456 @@ public class UploadService {
     }
 
     /**
-     * 下载文件
+     * 下载文件,返回的entity读取完毕后需调用EntityUtils.consume释放连接
      *
      * @param fileName
      */
     public HttpEntity downloadFile(String fileName) throws IOException {
-        CloseableHttpClient httpClient = null;
-        try {
-            httpClient = HttpClients.createDefault();
-            HttpGet httpget = new HttpGet(storageUrl + "/" + container + "/" + fileName);
-            httpget.addHeader(authToken);
-            HttpResponse response = httpClient.execute(httpget);
-            if (HttpStatus.SC_OK == response.getStatusLine().getStatusCode()) {
-                return response.getEntity();
-            }
-            return null;
-        } finally {
-            if (httpClient != null) {
-                httpClient.close();
+        HttpGet httpget = new HttpGet();
+        CloseableHttpResponse response = tokenManager.execute(SwiftMetrics.OP_DOWNLOAD, httpget, SwiftUtil.encode(container, fileName));
+        if (HttpStatus.SC_OK == response.getStatusLine().getStatusCode()) {
+            return response.getEntity();
+        }
+        HttpClientPool.release(response);
+        return null;
+    }
+
+    public CloseableHttpResponse download(String fileName, String range, String ifRange) throws IOException {
+        genUrlAndToken();
+        return downloadFile(fileName, range, ifRange);
+    }
+
+    /**
+     * 下载文件,转发Range/If-Range,响应由调用方读取后调用HttpClientPool.release释放
+     *
+     * @param fileName
+     * @param range    Range请求头,可为null
+     * @param ifRange  If-Range请求头,可为null
+     */
+    public CloseableHttpResponse downloadFile(String fileName, String range, String ifRange) throws IOException {
+        HttpGet httpget = new HttpGet();
+        if (range != null) {
+            httpget.addHeader("Range", range);
+            if (ifRange != null) {
+                httpget.addHeader("If-Range", ifRange);
             }
         }
+        return tokenManager.execute(SwiftMetrics.OP_DOWNLOAD, httpget, SwiftUtil.encode(container, fileName));
+    }
+
+    /**
+     * 下载文件,eTag不为空时带If-None-Match,未变化返回304
+     *
+     * @param fileName
+     * @param eTag     本地已有版本的ETAG,可为null
+     */
+    public CloseableHttpResponse downloadIfNoneMatch(String fileName, String eTag) throws IOException {
+        HttpGet httpget = new HttpGet();
+        if (eTag != null) {
+            httpget.addHeader("If-None-Match", eTag);
+        }
+        return tokenManager.execute(SwiftMetrics.OP_DOWNLOAD, httpget, SwiftUtil.encode(container, fileName));
     }
 
     /**
      * 分片上传
      *
+     * @return 返回上传会话ID, 失败后可用于续传
      * @throws IOException
      */
-    public void splitUpload() throws IOException {
-        long start = System.currentTimeMillis();
-        System.out.println("splitUpload start:" + start);
+    public String splitUpload() throws IOException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String sessionId = doSplitUpload();
+            success = true;
+            return sessionId;
+        } finally {
+            swiftMetrics.record(SwiftMetrics.OP_SPLIT_UPLOAD, start, success);
+        }
+    }
+
+    private String doSplitUpload() throws IOException {
         genUrlAndToken();
 
         String tempName = System.currentTimeMillis() + srcFilePath.substring(srcFilePath.lastIndexOf("."));
         File file = new File(srcFilePath);
-        List<SegFile> segFiles = splitFile(file, perLen * 1024 * 1024);//切分并且已经存储
+        boolean cdc = CHUNKING_CDC.equals(chunking);
+        boolean stream = cdc || dedup || SEGMENT_MODE_STREAM.equals(segmentMode);//去重模式分片名取决于内容,直接读取源文件
+        List<SegFile> segFiles;
+        if (cdc) {
+            segFiles = chunkFile(file);
+        } else if (stream) {
+            segFiles = planSegments(file, perLen * 1024 * 1024);//直接从源文件读取,不落临时文件
+        } else {
+            segFiles = splitFile(file, perLen * 1024 * 1024);//切分并且已经存储
+        }
 
-        JSONArray data = new JSONArray();
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), file.getAbsolutePath(), file.length(), file.lastModified(), tempName, segFiles);
+        uploadJournal.save(session);
+        uploadSession(session, !stream);
+        return session.getId();
+    }
+
+    /**
+     * 续传未完成的分片上传,已确认的分片不再上传
+     *
+     * @param sessionId 上传会话ID
+     * @throws IOException
+     */
+    public void resumeUpload(String sessionId) throws IOException {
+        UploadSession session = uploadJournal.load(sessionId);
+        if (session == null) {
+            throw new FileNotFoundException("upload session not found: " + sessionId);
+        }
+        File file = new File(session.getSrcPath());
+        if (file.length() != session.getSrcLength() || file.lastModified() != session.getSrcModified()) {
+            throw new IOException("source file changed since upload session " + sessionId);
+        }
+        genUrlAndToken();
+        if (journalVerify) {
+            for (SegFile segFile : session.getSegFiles()) {//确认已上传分片在swift上仍然存在且一致
+                if (segFile.getETag() != null && !segFile.getETag().equalsIgnoreCase(headETag(segContainer, segFile.getTempName()))) {
+                    segFile.setETag(null);
+                }
+            }
+        }
+        uploadSession(session, false);
+    }
+
+    /**
+     * 上传会话中尚未上传的分片,每个分片成功后写入日志,全部完成后合并
+     *
+     * @param session
+     * @param localFiles 分片是否已切分到desPath, 否则直接读取源文件区间
+     * @throws IOException
+     */
+    private void uploadSession(UploadSession session, boolean localFiles) throws IOException {
+        File file = new File(session.getSrcPath());
+        List<SegFile> segFiles = session.getSegFiles();
+        List<SegFile> todo = new ArrayList<>();
         for (SegFile segFile : segFiles) {
-            File f = new File(desPath + "/" + segFile.getTempName());
-            String eTag = upload(new FileInputStream(f), segContainer, segFile.getTempName());
-            JSONObject object = new JSONObject();
-            object.put("path", segContainer + "/" + segFile.getTempName());
-            object.put("etag", eTag);
-            object.put("size_bytes", f.length());
-            data.add(object);
+            if (segFile.getETag() == null) {
+                todo.add(segFile);
+            }
+        }
+
+        try {
+            segmentUploader.uploadAll(todo, segFile -> {
+                String eTag;
+                if (dedup) {
+                    eTag = uploadDedup(file, segFile);
+                } else if (localFiles) {
+                    try (FileInputStream in = new FileInputStream(desPath + "/" + segFile.getTempName())) {
+                        eTag = upload(in, segContainer, segFile.getTempName());
+                    }
+                } else {
+                    eTag = uploadEntity(new FileSegmentEntity(file, segFile.getStartPoint(), segFile.getLength()), segContainer, segFile.getTempName());
+                }
+                if (eTag != null) {
+                    segFile.setETag(eTag);
+                    uploadJournal.save(session);
+                }
+                return eTag;
+            });
+
+            JSONArray data = new JSONArray();
+            for (SegFile segFile : segFiles) {//segFiles按索引号顺序生成
+                JSONObject object = new JSONObject();
+                object.put("path", segContainer + "/" + segFile.getTempName());
+                object.put("etag", segFile.getETag());
+                object.put("size_bytes", segFile.getLength());
+                data.add(object);
+            }
+            if (!merge(session.getStoreName(), data.toString())) {
+                if (dedup) {//引用的分片可能已被删除,续传时重新确认
+                    for (SegFile segFile : segFiles) {
+                        segmentIndex.remove(segFile.getTempName());
+                    }
+                }
+                throw new IOException("manifest " + session.getStoreName() + " rejected");
+            }
+            uploadJournal.remove(session.getId());
+        } finally {
+            if (localFiles) {//swift上的分片由清单引用,只删除本地临时分片;失败时续传直接读取源文件
+                for (SegFile segFile : segFiles) {
+                    segmentCleaner.deleteLocal(new File(desPath + "/" + segFile.getTempName()));
+                }
+            }
+        }
+    }
+
+    /**
+     * 放弃未完成的分片上传: 删除会话并清理已上传的分片
+     *
+     * @param sessionId 上传会话ID
+     * @throws IOException
+     */
+    public void abandonUpload(String sessionId) throws IOException {
+        UploadSession session = uploadJournal.load(sessionId);
+        if (session == null) {
+            throw new FileNotFoundException("upload session not found: " + sessionId);
+        }
+        uploadJournal.remove(sessionId);
+        if (!dedup) {//去重分片可能被其他对象引用,不删除
+            List<SegFile> uploaded = new ArrayList<>();
+            for (SegFile segFile : session.getSegFiles()) {
+                if (segFile.getETag() != null) {
+                    uploaded.add(segFile);
+                }
+            }
+            deleteSegmentFiles(uploaded, false);
+        }
+    }
+
+    /**
+     * 去重上传一个分片: 读取源文件区间计算SHA-256作为分片名,本地索引或HEAD确认已存在时直接引用;
+     * 先哈希后上传,需要上传的分片会读取两遍源文件,换取已存在的分片不占用上传带宽
+     *
+     * @param file    源文件
+     * @param segFile 分片, 上传后分片名改为内容哈希
+     * @return 返回分片ETAG, 失败返回null
+     * @throws IOException
+     */
+    private String uploadDedup(File file, SegFile segFile) throws IOException {
+        FileSegmentEntity entity = new FileSegmentEntity(file, segFile.getStartPoint(), segFile.getLength());
+        String hash = segFile.getTempName();
+        String md5 = null;
+        if (!FastCdc.isContentName(hash)) {//内容定义分块时已在切分过程中计算
+            MessageDigest digest = DigestUtils.getSha256Digest();
+            MessageDigest md5Digest = DigestUtils.getMd5Digest();//同一次读取中计算,上传时由swift校验
+            entity.writeTo(new DigestOutputStream(new DigestOutputStream(new NullOutputStream(), md5Digest), digest));
+            hash = Hex.encodeHexString(digest.digest());
+            md5 = Hex.encodeHexString(md5Digest.digest());
+            segFile.setTempName(hash);
+        }
+
+        String eTag = segmentIndex.get(hash);
+        if (eTag == null) {
+            eTag = headETag(segContainer, hash);
+        }
+        if (eTag == null) {
+            eTag = uploadEntity(entity, segContainer, hash, md5);
+        }
+        if (eTag != null) {
+            segmentIndex.put(hash, eTag);
         }
-        merge(tempName, data.toString());
+        return eTag;
+    }
 
-        deleteSegmentFiles(segFiles);//删除分片文件，节省存储
-        System.out.println("splitUpload end, use time: " + (System.currentTimeMillis() - start));
+    /**
+     * 未完成的分片上传会话
+     */
+    public List<UploadSession> listUploadSessions() throws IOException {
+        return uploadJournal.list();
+    }
+
+    /**
+     * 按文件大小选择上传方式,超过阈值或长度未知时边读边切分上传
+     *
+     * @param stream    文件流
+     * @param length    长度,未知时传-1
+     * @param storeName 存储全名
+     * @return 返回ETAG, 失败返回null
+     * @throws IOException
+     */
+    public String uploadAuto(InputStream stream, long length, String storeName) throws IOException {
+        if (length < 0 || length > segmentThreshold * 1024L * 1024) {
+            return streamSplitUpload(stream, length, storeName);
+        }
+        return upload(stream, length, container, storeName);
     }
 
     /**
-     * 删除分片文件,此操作可以放在mq或者开线程执行
+     * 按文件大小选择上传方式,可压缩的类型(按扩展名或Content-Type)开启压缩时边读边gzip压缩,
+     * 编码与原始长度记录在对象元数据中
+     *
+     * @param stream      文件流
+     * @param length      长度,未知时传-1
+     * @param storeName   存储全名
+     * @param contentType 客户端提供的Content-Type, 可为null
+     * @return 返回ETAG, 失败返回null
+     * @throws IOException
+     */
+    public String uploadAuto(InputStream stream, long length, String storeName, String contentType) throws IOException {
+        return uploadAuto(stream, length, length, storeName, contentType);
+    }
+
+    /**
+     * 按文件大小选择上传方式
+     *
+     * @param maxLength 长度上限, 长度未知但上限不超过阈值时(如multipart表单中的文件, 以请求体长度为上限)仍整体上传, 未知传-1
+     */
+    public String uploadAuto(InputStream stream, long length, long maxLength, String storeName, String contentType) throws IOException {
+        boolean whole = maxLength >= 0 && maxLength <= segmentThreshold * 1024L * 1024;
+        if (!shouldCompress(storeName, contentType)) {
+            return whole ? upload(stream, length, container, storeName) : streamSplitUpload(stream, length, storeName);
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put(META_CODEC, CODEC_GZIP);
+        if (length >= 0) {
+            headers.put(META_LENGTH, String.valueOf(length));
+        }
+        if (contentType != null) {
+            headers.put("Content-Type", contentType);
+        }
+        try (InputStream compressed = new GzipCompressingInputStream(stream, compressLevel)) {//关闭时释放Deflater的本地内存
+            if (whole) {//压缩后长度未知,以chunked方式发送
+                genUrlAndToken();
+                return uploadEntity(new InputStreamEntity(compressed, -1), container, storeName, null, headers);
+            }
+            return streamSplitUpload(compressed, -1, storeName, headers);
+        }
+    }
+
+    /**
+     * 是否压缩存储
+     *
+     * @param storeName   存储全名, 按扩展名判断
+     * @param contentType 可为null
+     * @return
+     */
+    public boolean shouldCompress(String storeName, String contentType) {
+        if (!compress) {
+            return false;
+        }
+        int dot = storeName.lastIndexOf('.');
+        if (dot >= 0 && compressExtensions.contains(storeName.substring(dot + 1).toLowerCase())) {
+            return true;
+        }
+        if (contentType != null) {
+            for (String type : compressContentTypes) {
+                if (!type.isEmpty() && contentType.toLowerCase().startsWith(type.trim())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 边读边切分上传,每读满perLen即作为一个分片上传到segContainer,最后写入SLO清单
+     *
+     * @param stream    文件流
+     * @param length    长度,未知时传-1,分片以chunked方式发送
+     * @param storeName 存储全名
+     * @return 返回清单对象的ETAG, 失败返回null
+     * @throws IOException
+     */
+    public String streamSplitUpload(InputStream stream, long length, String storeName) throws IOException {
+        return streamSplitUpload(stream, length, storeName, null);
+    }
+
+    /**
+     * 边读边切分上传
+     *
+     * @param headers 清单对象的附加请求头, 如X-Object-Meta-*, 可为null
+     */
+    public String streamSplitUpload(InputStream stream, long length, String storeName, Map<String, String> headers) throws IOException {
+        genUrlAndToken();
+        long segLen = perLen * 1024L * 1024;
+        PushbackInputStream in = new PushbackInputStream(stream, 1);
+        List<SegFile> segFiles = new ArrayList<>();
+        JSONArray data = new JSONArray();
+        long offset = 0;
+        try {
+            int b;
+            while ((b = in.read()) >= 0) {
+                in.unread(b);
+                long expect = length < 0 ? -1 : Math.min(segLen, length - offset);
+                BoundedInputStream bounded = new BoundedInputStream(in, segLen);
+                bounded.setPropagateClose(false);
+                CountingInputStream counting = new CountingInputStream(bounded);
+                String tempName = UUID.randomUUID().toString();
+                String eTag = uploadFile(counting, expect, segContainer, tempName);
+                SegFile segFile = new SegFile(tempName, segFiles.size(), offset, counting.getByteCount());
+                segFiles.add(segFile);
+                if (eTag == null) {
+                    throw new IOException("segment " + segFile.getIndex() + " upload rejected");
+                }
+                JSONObject object = new JSONObject();
+                object.put("path", segContainer + "/" + tempName);
+                object.put("etag", eTag);
+                object.put("size_bytes", segFile.getLength());
+                data.add(object);
+                offset += segFile.getLength();
+            }
+            if (segFiles.isEmpty()) {//空文件无需清单
+                return uploadEntity(new ByteArrayEntity(new byte[0]), container, storeName, null, headers);
+            }
+            String eTag = mergeManifest(storeName, data.toString(), headers);
+            if (eTag == null) {
+                throw new IOException("manifest " + storeName + " rejected");
+            }
+            return eTag;
+        } catch (IOException e) {
+            deleteSegmentFiles(segFiles, false);//清理已上传的分片
+            throw e;
+        }
+    }
+
+    /**
+     * 删除分片文件,交给SegmentCleaner在后台执行
      *
      * @param segFiles
+     * @param local    是否同时删除desPath下的本地临时分片
      * @throws IOException
      */
-    private void deleteSegmentFiles(List<SegFile> segFiles) throws IOException {
-        long start = System.currentTimeMillis();
-        System.out.println("deleteSegmentFiles start:" + start);
+    private void deleteSegmentFiles(List<SegFile> segFiles, boolean local) throws IOException {
+        List<String> names = new ArrayList<>();
         for (SegFile file : segFiles) {
-            deleteFile(segContainer, file.getTempName());
+            names.add(file.getTempName());
+            if (local) {
+                segmentCleaner.deleteLocal(new File(desPath + "/" + file.getTempName()));
+            }
         }
-        System.out.println("deleteSegmentFiles end, use time: " + (System.currentTimeMillis() - start));
+        segmentCleaner.deleteRemote(segContainer, names);//一个bulk-delete任务删除全部分片
     }
 
     /**
-     * 切分文件
+     * 计算分片(起始点与长度),不读写文件
      *
      * @param file
      * @param perLen
      * @return
-     * @throws IOException
      */
-    public List<SegFile> splitFile(File file, int perLen) throws IOException {
+    public List<SegFile> planSegments(File file, int perLen) {
         long fileLen = file.length();
         long fileNum = fileLen / perLen + (fileLen % perLen == 0 ? 0 : 1);
-        int page;
-        long startPoint;
-        SegFile segFile;
         List<SegFile> segFiles = new ArrayList<>();
-        BigDecimal per = new BigDecimal(perLen + "");
-        for (page = 0; page < fileNum - 1; page++) {
-            startPoint = per.multiply(new BigDecimal(page)).longValue();
-            segFile = new SegFile(UUID.randomUUID().toString(), page, startPoint);
-            segFiles.add(segFile);
+        for (int page = 0; page < Math.max(fileNum, 1); page++) {
+            long startPoint = (long) perLen * page;
+            segFiles.add(new SegFile(UUID.randomUUID().toString(), page, startPoint, Math.min(perLen, fileLen - startPoint)));
         }
-        startPoint = per.multiply(new BigDecimal(page)).longValue();
-        segFile = new SegFile(UUID.randomUUID().toString(), page, startPoint);
-        segFiles.add(segFile);
+        return segFiles;
+    }
 
-        RandomAccessFile fis = new RandomAccessFile(file, "rw");
+    /**
+     * 内容定义分块(FastCDC),一次顺序读取计算全部分片,去重模式下同时计算分片内容哈希作为分片名
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public List<SegFile> chunkFile(File file) throws IOException {
+        FastCdc fastCdc = new FastCdc(cdcMinSize * 1024, cdcAvgSize * 1024, cdcMaxSize * 1024);
+        try (InputStream in = new FileInputStream(file)) {
+            return fastCdc.split(in, dedup);
+        }
+    }
+
+    /**
+     * 切分文件
+     *
+     * @param file
+     * @param perLen
+     * @return
+     * @throws IOException
+     */
+    public List<SegFile> splitFile(File file, int perLen) throws IOException {
+        List<SegFile> segFiles = planSegments(file, perLen);
+
+        RandomAccessFile fis = new RandomAccessFile(file, "r");
         FileOutputStream fos;
         long readSize;
         for (SegFile sFile : segFiles) {
@@ -245,23 +728,74 @@ public class UploadService {
      * @throws IOException
      */
     public boolean merge(String tempName, String data) throws IOException {
-        CloseableHttpClient httpClient = null;
+        return mergeManifest(tempName, data) != null;
+    }
+
+    /**
+     * 合并文件
+     *
+     * @param tempName
+     * @param data
+     * @return 返回清单对象的ETAG, 失败返回null
+     * @throws IOException
+     */
+    public String mergeManifest(String tempName, String data) throws IOException {
+        return mergeManifest(tempName, data, null);
+    }
+
+    /**
+     * 合并文件
+     *
+     * @param headers 清单对象的附加请求头, 如X-Object-Meta-*, 可为null
+     * @return 返回清单对象的ETAG, 失败返回null
+     */
+    public String mergeManifest(String tempName, String data, Map<String, String> headers) throws IOException {
+        CloseableHttpResponse response = null;
         try {
-            httpClient = HttpClients.createDefault();
-            HttpPut httpPut = new HttpPut(storageUrl + "/" + container + "/" + tempName + "?multipart-manifest=put");
-            httpPut.setHeader(authToken);
-            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(data.getBytes());
-            InputStreamEntity inputStreamEntity = new InputStreamEntity(byteArrayInputStream);
-            httpPut.setEntity(inputStreamEntity);
-            HttpResponse response = httpClient.execute(httpPut);
-            return response.getStatusLine().getStatusCode() < 300;
+            HttpPut httpPut = new HttpPut();
+            addHeaders(httpPut, headers);
+            httpPut.setEntity(new ByteArrayEntity(data.getBytes()));
+            response = tokenManager.execute(SwiftMetrics.OP_MERGE, httpPut, SwiftUtil.encode(container, tempName) + "?multipart-manifest=put");
+            if (response.getStatusLine().getStatusCode() < 300) {
+                Header eTag = response.getFirstHeader("Etag");
+                return eTag == null ? "" : eTag.getValue();
+            }
+            return null;
         } finally {
-            if (httpClient != null) {
-                httpClient.close();
+            HttpClientPool.release(response);
+        }
+    }
+
+    private void addHeaders(HttpPut httpPut, Map<String, String> headers) {
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                httpPut.addHeader(header.getKey(), header.getValue());
             }
         }
     }
 
+    /**
+     * 查询对象ETAG
+     *
+     * @param containerName
+     * @param fileName
+     * @return 返回ETAG, 对象不存在返回null
+     */
+    public String headETag(String containerName, String fileName) throws IOException {
+        CloseableHttpResponse response = null;
+        try {
+            HttpHead httpHead = new HttpHead();
+            response = tokenManager.execute(SwiftMetrics.OP_HEAD, httpHead, SwiftUtil.encode(containerName, fileName));
+            Header eTag = response.getFirstHeader("Etag");
+            if (response.getStatusLine().getStatusCode() < 300 && eTag != null) {
+                return eTag.getValue().replace("\"", "");
+            }
+            return null;
+        } finally {
+            HttpClientPool.release(response);
+        }
+    }
+
     /**
      * 删除文件
      *
@@ -269,21 +803,49 @@ public class UploadService {
      * @param fileName
      */
     public boolean deleteFile(String containerName, String fileName) throws IOException {
-        CloseableHttpClient httpClient = null;
+        return delete(containerName, fileName) < 300;
+    }
+
+    /**
+     * 删除文件
+     *
+     * @param containerName
+     * @param fileName
+     * @return 返回HTTP状态码
+     */
+    public int delete(String containerName, String fileName) throws IOException {
+        CloseableHttpResponse response = null;
         try {
-            genUrlAndToken();
-            httpClient = HttpClients.createDefault();
-            HttpDelete httpDelete = new HttpDelete(storageUrl + "/" + containerName + "/" + fileName);
-            httpDelete.addHeader(authToken);
-            HttpResponse response = httpClient.execute(httpDelete);
-            return response.getStatusLine().getStatusCode() < 300;
+            HttpDelete httpDelete = new HttpDelete();
+            response = tokenManager.execute(SwiftMetrics.OP_DELETE, httpDelete, SwiftUtil.encode(containerName, fileName));
+            return response.getStatusLine().getStatusCode();
         } finally {
-            if (httpClient != null) {
-                httpClient.close();
-            }
+            HttpClientPool.release(response);
         }
     }
 
+    /**
+     * 容器内对象列表的一页
+     *
+     * @param prefix    对象名前缀, 可为null
+     * @param delimiter 目录分隔符, 可为null
+     * @param marker    只返回名称大于marker的对象, 传上一页最后一项的名称翻页, 第一页为null
+     * @param limit     每页数量, 不超过10000; 返回少于limit项说明已是最后一页
+     * @return
+     * @throws IOException
+     */
+    public List<SwiftObject> listObjects(String prefix, String delimiter, String marker, int limit) throws IOException {
+        return SwiftUtil.listObjectsPage(container, prefix, delimiter, marker, limit);
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+
+    public boolean isDedup() {
+        return dedup;
+    }
+
     public String getContainer() {
         return container;
     }
@@ -0,0 +1,403 @@
+package net.ys.util;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多个swift代理节点间的负载均衡: 按(进行中请求数+1)*平均响应时间选择节点;
+ * 被动检查: 连续失败(连接异常或502/503/504)达到阈值后摘除一段时间,到期后重新参与选择;
+ * 主动检查: 定时请求各节点的/healthcheck,恢复或摘除节点
+ */
+public class EndpointBalancer implements Closeable {
+
+    private static final double EWMA_WEIGHT = 0.2;//新样本在平均响应时间中的权重
+
+    private final List<Endpoint> endpoints;
+
+    private final HttpClientPool httpClientPool;
+
+    private final int failThreshold;
+
+    private final long downTime;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private ScheduledExecutorService checker;
+
+    /**
+     * 一个代理节点
+     */
+    public static class Endpoint {
+
+        private final String base;//scheme://host:port
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private volatile double latency;//平均响应时间(毫秒)
+
+        private volatile long downUntil;//摘除截止时间点,0表示正常
+
+        Endpoint(String base) {
+            this.base = base;
+        }
+
+        public String getBase() {
+            return base;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public double getLatency() {
+            return latency;
+        }
+
+        public boolean isUp() {
+            return downUntil == 0 || System.currentTimeMillis() >= downUntil;
+        }
+
+        private double score() {
+            return (outstanding.get() + 1) * Math.max(latency, 1);
+        }
+    }
+
+    /**
+     * @param bases          节点地址列表,如 http://10.0.0.1:8080
+     * @param httpClientPool 连接池,用于主动检查
+     * @param failThreshold  连续失败多少次后摘除
+     * @param downTime       摘除时长(毫秒)
+     */
+    public EndpointBalancer(List<String> bases, HttpClientPool httpClientPool, int failThreshold, long downTime) {
+        List<Endpoint> list = new ArrayList<>();
+        for (String base : bases) {
+            list.add(new Endpoint(base));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+        this.httpClientPool = httpClientPool;
+        this.failThreshold = failThreshold;
+        this.downTime = downTime;
+    }
+
+    /**
+     * 按配置创建,节点不足两个时不需要均衡
+     *
+     * @param urls      认证地址,逗号分隔
+     * @param endpoints 代理节点地址,逗号分隔,为空时取各认证地址的scheme://host:port
+     * @return 节点不足两个返回null
+     */
+    public static EndpointBalancer create(String urls, String endpoints, HttpClientPool httpClientPool, int failThreshold, long downTime) {
+        List<String> bases = new ArrayList<>();
+        for (String url : split(endpoints == null || endpoints.trim().isEmpty() ? urls : endpoints)) {
+            String base = base(url);
+            if (!bases.contains(base)) {
+                bases.add(base);
+            }
+        }
+        return bases.size() < 2 ? null : new EndpointBalancer(bases, httpClientPool, failThreshold, downTime);
+    }
+
+    /**
+     * 逗号分隔的地址列表
+     */
+    public static List<String> split(String urls) {
+        List<String> list = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (!url.trim().isEmpty()) {
+                list.add(url.trim());
+            }
+        }
+        return list;
+    }
+
+    private static String base(String url) {
+        URI uri = URI.create(url);
+        return uri.getScheme() + "://" + uri.getRawAuthority();
+    }
+
+    /**
+     * 开启主动检查
+     *
+     * @param interval 检查间隔(毫秒)
+     */
+    public void startHealthCheck(long interval) {
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "swift-endpoint-check");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(this::checkAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 选择节点: 优先正常节点,全部摘除时仍在未尝试过的节点中选择
+     *
+     * @param tried 本次请求已尝试过的节点
+     * @return 没有可尝试的节点返回null
+     */
+    public Endpoint select(Collection<Endpoint> tried) {
+        Endpoint best = pick(tried, true);
+        return best != null ? best : pick(tried, false);
+    }
+
+    private Endpoint pick(Collection<Endpoint> tried, boolean upOnly) {
+        int size = endpoints.size();
+        int offset = Math.floorMod(next.getAndIncrement(), size);//得分相同时轮流选择
+        Endpoint best = null;
+        double bestScore = 0;
+        for (int i = 0; i < size; i++) {
+            Endpoint endpoint = endpoints.get((offset + i) % size);
+            if (tried.contains(endpoint) || (upOnly && !endpoint.isUp())) {
+                continue;
+            }
+            double score = endpoint.score();
+            if (best == null || score < bestScore) {
+                best = endpoint;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 轮流选择正常节点,用于不经过execute的请求
+     */
+    public Endpoint next() {
+        int size = endpoints.size();
+        int offset = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Endpoint endpoint = endpoints.get((offset + i) % size);
+            if (endpoint.isUp()) {
+                return endpoint;
+            }
+        }
+        return endpoints.get(offset);
+    }
+
+    /**
+     * 存储地址换成指定节点,路径(/v1/AUTH_xxx)不变
+     *
+     * @param endpoint
+     * @param storageUrl 认证返回的X-Storage-Url
+     * @return
+     */
+    public String storageUrl(Endpoint endpoint, String storageUrl) {
+        URI uri = URI.create(storageUrl);
+        return endpoint.base + uri.getRawPath();
+    }
+
+    /**
+     * 请求开始
+     *
+     * @return 开始时间(纳秒)
+     */
+    public long begin(Endpoint endpoint) {
+        endpoint.outstanding.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * 收到响应,5xx网关错误计为失败
+     *
+     * @param endpoint
+     * @param start    begin()返回值
+     * @param response
+     * @return 是否健康
+     */
+    public boolean complete(Endpoint endpoint, long start, HttpResponse response) {
+        int code = response.getStatusLine().getStatusCode();
+        boolean healthy = code != 502 && code != 503 && code != 504;
+        if (healthy) {
+            endpoint.latency += EWMA_WEIGHT * ((System.nanoTime() - start) / 1e6 - endpoint.latency);
+            markUp(endpoint);
+        } else {
+            markFailed(endpoint);
+        }
+        return healthy;
+    }
+
+    /**
+     * 跟踪响应: 响应体读完、响应体流关闭或响应关闭(包括不读响应体直接close)时减少节点的进行中请求数
+     *
+     * @param endpoint
+     * @param response complete()之后的响应
+     * @return 调用方应使用返回的响应
+     */
+    public CloseableHttpResponse track(Endpoint endpoint, CloseableHttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentLength() == 0 || !entity.isStreaming()) {//无响应体
+            endpoint.outstanding.decrementAndGet();
+            return response;
+        }
+        Tracker tracker = new Tracker(endpoint);
+        response.setEntity(new TrackedEntity(entity, tracker));
+        return (CloseableHttpResponse) Proxy.newProxyInstance(CloseableHttpResponse.class.getClassLoader(),
+                new Class<?>[]{CloseableHttpResponse.class}, (proxy, method, args) -> {
+                    try {
+                        return method.invoke(response, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if ("close".equals(method.getName())) {
+                            tracker.done();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * 请求异常(未收到响应)
+     *
+     * @param endpoint
+     * @param countFailure 是否计为节点失败, 调用方中断时不计
+     */
+    public void fail(Endpoint endpoint, boolean countFailure) {
+        endpoint.outstanding.decrementAndGet();
+        if (countFailure) {
+            markFailed(endpoint);
+        }
+    }
+
+    private void markUp(Endpoint endpoint) {
+        endpoint.failures.set(0);
+        endpoint.downUntil = 0;
+    }
+
+    private void markFailed(Endpoint endpoint) {
+        if (endpoint.failures.incrementAndGet() >= failThreshold) {
+            endpoint.downUntil = System.currentTimeMillis() + downTime;
+        }
+    }
+
+    private void checkAll() {
+        for (Endpoint endpoint : endpoints) {
+            CloseableHttpResponse response = null;
+            try {
+                response = httpClientPool.getClient().execute(new HttpGet(endpoint.base + "/healthcheck"));
+                if (response.getStatusLine().getStatusCode() == 200) {
+                    markUp(endpoint);
+                } else {
+                    endpoint.failures.set(failThreshold);
+                    endpoint.downUntil = System.currentTimeMillis() + downTime;
+                }
+            } catch (IOException e) {
+                endpoint.failures.set(failThreshold);
+                endpoint.downUntil = System.currentTimeMillis() + downTime;
+            } finally {
+                HttpClientPool.release(response);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+    }
+
+    /**
+     * 每个响应只减少一次进行中请求数
+     */
+    private static class Tracker {
+
+        private final Endpoint endpoint;
+
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Tracker(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        void done() {
+            if (done.compareAndSet(false, true)) {
+                endpoint.outstanding.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 响应体读完或关闭时结束跟踪
+     */
+    private static class TrackedEntity extends HttpEntityWrapper {
+
+        private final Tracker tracker;
+
+        TrackedEntity(HttpEntity entity, Tracker tracker) {
+            super(entity);
+            this.tracker = tracker;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (!isStreaming()) {
+                tracker.done();
+                return super.getContent();
+            }
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b < 0) {
+                        tracker.done();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n < 0) {
+                        tracker.done();
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        tracker.done();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try {
+                super.writeTo(out);
+            } finally {
+                tracker.done();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package net.ys.util;
+
+import net.ys.bean.SegFile;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * FastCDC内容定义分块: 按gear滚动哈希选择切分点,插入或删除少量字节只影响附近的分片,
+ * 其余分片与上一版本相同,配合去重上传可复用;单次顺序读取,内存占用与文件大小无关
+ */
+public class FastCdc {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x5EED_CDC0L);//固定种子,保证不同进程切分结果一致
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+
+    private final int avgSize;
+
+    private final int maxSize;
+
+    private final long maskS;//未达到平均大小时使用,更难命中
+
+    private final long maskL;//超过平均大小后使用,更易命中
+
+    /**
+     * @param minSize 最小分片字节数
+     * @param avgSize 期望平均分片字节数
+     * @param maxSize 最大分片字节数
+     */
+    public FastCdc(int minSize, int avgSize, int maxSize) {
+        if (minSize <= 0 || minSize > avgSize || avgSize > maxSize) {
+            throw new IllegalArgumentException("require 0 < minSize <= avgSize <= maxSize");
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+        int bits = 31 - Integer.numberOfLeadingZeros(avgSize);
+        this.maskS = mask(bits + 2);//归一化分块,分片大小集中在平均值附近
+        this.maskL = mask(Math.max(bits - 2, 1));
+    }
+
+    /**
+     * 取哈希高位作为掩码,高位受最近64个字节影响
+     */
+    private static long mask(int bits) {
+        return bits >= 64 ? -1L : ((1L << bits) - 1) << (64 - bits);
+    }
+
+    /**
+     * 分块
+     *
+     * @param in          输入流, 读取到结尾, 由调用方关闭
+     * @param contentName 是否按分片内容的SHA-256命名(用于去重), 否则随机命名
+     * @return 按顺序排列的分片(起始点与长度)
+     * @throws IOException
+     */
+    public List<SegFile> split(InputStream in, boolean contentName) throws IOException {
+        List<SegFile> segFiles = new ArrayList<>();
+        MessageDigest digest = contentName ? DigestUtils.getSha256Digest() : null;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long offset = 0;//当前分片起始点
+        int size = 0;//当前分片已读字节数
+        long fp = 0;
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            int from = 0;//本次读取中属于当前分片的起始位置
+            int i = 0;
+            while (i < len) {
+                if (size < minSize) {//最小长度内不可能切分,直接跳过
+                    int skip = Math.min(minSize - size, len - i);
+                    size += skip;
+                    i += skip;
+                    continue;
+                }
+                fp = (fp << 1) + GEAR[buffer[i] & 0xff];
+                size++;
+                i++;
+                if ((fp & (size < avgSize ? maskS : maskL)) == 0 || size >= maxSize) {
+                    if (digest != null) {
+                        digest.update(buffer, from, i - from);
+                    }
+                    segFiles.add(segFile(segFiles.size(), offset, size, digest));
+                    offset += size;
+                    size = 0;
+                    fp = 0;
+                    from = i;
+                }
+            }
+            if (digest != null && from < len) {
+                digest.update(buffer, from, len - from);
+            }
+        }
+        if (size > 0 || segFiles.isEmpty()) {//末尾不足一片, 空文件也保留一个0字节分片
+            segFiles.add(segFile(segFiles.size(), offset, size, digest));
+        }
+        return segFiles;
+    }
+
+    private static SegFile segFile(int index, long offset, int size, MessageDigest digest) {
+        String name = digest == null ? UUID.randomUUID().toString() : Hex.encodeHexString(digest.digest());
+        return new SegFile(name, index, offset, size);
+    }
+
+    /**
+     * 是否为split(in, true)生成的内容哈希名
+     *
+     * @param name
+     * @return
+     */
+    public static boolean isContentName(String name) {
+        return name != null && name.length() == 64 && name.matches("[0-9a-f]+");
+    }
+}
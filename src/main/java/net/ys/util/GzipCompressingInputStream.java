@@ -0,0 +1,122 @@
+package net.ys.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 读取时压缩: 从源流读取原始数据,输出gzip格式的数据,供上传边读边压缩,不缓存整个文件
+ */
+public class GzipCompressingInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final InputStream in;
+
+    private final Deflater deflater;
+
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] input = new byte[BUFFER_SIZE];
+
+    private final byte[] output = new byte[BUFFER_SIZE];
+
+    private int outputPos;
+
+    private int outputLen;
+
+    private boolean headerDone;
+
+    private boolean trailerDone;
+
+    /**
+     * @param in    原始数据
+     * @param level 压缩级别 1-9
+     */
+    public GzipCompressingInputStream(InputStream in, int level) {
+        this.in = in;
+        this.deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (outputPos >= outputLen) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, outputLen - outputPos);
+        System.arraycopy(output, outputPos, b, off, n);
+        outputPos += n;
+        return n;
+    }
+
+    /**
+     * 产生下一段输出
+     *
+     * @return 已全部输出返回false
+     */
+    private boolean fill() throws IOException {
+        outputPos = 0;
+        outputLen = 0;
+        if (!headerDone) {
+            System.arraycopy(HEADER, 0, output, 0, HEADER.length);
+            outputLen = HEADER.length;
+            headerDone = true;
+            return true;
+        }
+        if (!deflater.finished()) {
+            if (deflater.needsInput()) {
+                int n = in.read(input);
+                if (n < 0) {
+                    deflater.finish();
+                } else if (n > 0) {
+                    crc.update(input, 0, n);
+                    deflater.setInput(input, 0, n);
+                }
+            }
+            outputLen = deflater.deflate(output, 0, output.length);
+            return true;
+        }
+        if (!trailerDone) {
+            writeInt((int) crc.getValue(), 0);
+            writeInt((int) deflater.getBytesRead(), 4);//原始长度对2^32取模
+            outputLen = 8;
+            trailerDone = true;
+            return true;
+        }
+        return false;
+    }
+
+    private void writeInt(int value, int offset) {
+        output[offset] = (byte) value;
+        output[offset + 1] = (byte) (value >> 8);
+        output[offset + 2] = (byte) (value >> 16);
+        output[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * 释放Deflater的本地内存并关闭源流,上传中途失败也须调用;可重复调用
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            deflater.end();
+        }
+    }
+}
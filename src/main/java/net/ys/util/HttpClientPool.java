@@ -0,0 +1,138 @@
+package net.ys.util;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 长连接池,UploadService与SwiftUtil共用,避免每次请求重新握手
+ */
+public class HttpClientPool implements Closeable {
+
+    private final PoolingHttpClientConnectionManager connManager;
+
+    private final CloseableHttpClient httpClient;
+
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * @param maxTotal       连接池最大连接数
+     * @param maxPerRoute    每个路由(host)最大连接数
+     * @param connectTimeout 建立连接超时(毫秒)
+     * @param socketTimeout  读取数据超时(毫秒)
+     * @param requestTimeout 从连接池获取连接超时(毫秒)
+     * @param keepAlive      服务端未声明时的默认keep-alive时长(毫秒)
+     * @param idleTimeout    空闲连接回收时长(毫秒)
+     */
+    public HttpClientPool(int maxTotal, int maxPerRoute, int connectTimeout, int socketTimeout, int requestTimeout, final long keepAlive, final long idleTimeout) {
+        connManager = new PoolingHttpClientConnectionManager();
+        connManager.setMaxTotal(maxTotal);
+        connManager.setDefaultMaxPerRoute(maxPerRoute);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout)
+                .setConnectionRequestTimeout(requestTimeout)
+                .build();
+
+        ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+                while (it.hasNext()) {
+                    HeaderElement he = it.nextElement();
+                    if ("timeout".equalsIgnoreCase(he.getName()) && he.getValue() != null) {
+                        try {
+                            return Math.min(Long.parseLong(he.getValue()) * 1000, keepAlive);
+                        } catch (NumberFormatException e) {
+                        }
+                    }
+                }
+                return keepAlive;
+            }
+        };
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .build();
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "swift-conn-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(idleTimeout / 2, 1000);
+        evictor.scheduleWithFixedDelay(() -> {
+            connManager.closeExpiredConnections();
+            connManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public CloseableHttpClient getClient() {
+        return httpClient;
+    }
+
+    /**
+     * 连接池整体统计(已租用/空闲/等待/上限)
+     */
+    public PoolStats getTotalStats() {
+        return connManager.getTotalStats();
+    }
+
+    /**
+     * 读完剩余响应体后关闭响应,使连接可以回到连接池复用
+     *
+     * @param response
+     */
+    public static void release(CloseableHttpResponse response) {
+        if (response != null) {
+            try {
+                EntityUtils.consume(response.getEntity());
+            } catch (IOException e) {
+            }
+            try {
+                response.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * 出错或客户端断开时直接关闭连接,不读取剩余响应体
+     *
+     * @param response
+     */
+    public static void abort(CloseableHttpResponse response) {
+        if (response != null) {
+            try {
+                response.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        evictor.shutdownNow();
+        httpClient.close();
+    }
+}
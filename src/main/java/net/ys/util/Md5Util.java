@@ -0,0 +1,207 @@
+package net.ys.util;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * 传输过程中计算MD5并与swift的ETAG比对,不额外读取数据也不缓存数据
+ */
+public class Md5Util {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 去掉ETAG两端的引号
+     */
+    public static String strip(String eTag) {
+        return eTag == null ? null : eTag.replace("\"", "");
+    }
+
+    /**
+     * 响应体是否为完整对象且ETAG为内容MD5: 200且不是SLO/DLO大对象
+     *
+     * @param response
+     * @return 可校验时返回ETAG, 否则返回null
+     */
+    public static String verifiableETag(HttpResponse response) {
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK
+                || response.getFirstHeader("X-Static-Large-Object") != null
+                || response.getFirstHeader("X-Object-Manifest") != null) {
+            return null;
+        }
+        Header eTag = response.getFirstHeader("Etag");
+        return eTag == null ? null : strip(eTag.getValue());
+    }
+
+    /**
+     * 复制并校验: 最后一块数据在校验通过后才写出,不一致时抛出异常,接收方得到不完整的内容而不是错误的内容
+     *
+     * @param in   输入流
+     * @param out  输出流
+     * @param eTag 期望的MD5, 为null时不校验
+     * @return 复制的字节数
+     * @throws IOException
+     */
+    public static long copyVerified(InputStream in, OutputStream out, String eTag) throws IOException {
+        MessageDigest digest = DigestUtils.getMd5Digest();
+        byte[] pending = new byte[BUFFER_SIZE];
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int pendingLen = 0;
+        long total = 0;
+        int len;
+        while ((len = in.read(buffer)) >= 0) {
+            if (len == 0) {
+                continue;
+            }
+            if (pendingLen > 0) {
+                out.write(pending, 0, pendingLen);
+            }
+            digest.update(buffer, 0, len);
+            byte[] swap = pending;
+            pending = buffer;
+            buffer = swap;
+            pendingLen = len;
+            total += len;
+        }
+        check(digest, eTag);
+        if (pendingLen > 0) {
+            out.write(pending, 0, pendingLen);
+        }
+        return total;
+    }
+
+    /**
+     * 比对摘要与ETAG, 摘要随之重置
+     *
+     * @param digest
+     * @param eTag   期望的MD5, 为null时不校验
+     * @throws IOException
+     */
+    public static void check(MessageDigest digest, String eTag) throws IOException {
+        byte[] hash = digest.digest();
+        if (eTag != null) {
+            String md5 = Hex.encodeHexString(hash);
+            if (!md5.equalsIgnoreCase(eTag)) {
+                throw new IOException("md5 mismatch: expected " + eTag + ", actual " + md5);
+            }
+        }
+    }
+
+    /**
+     * 发送时计算MD5的请求体,每次writeTo重新计算
+     */
+    public static class Md5Entity extends HttpEntityWrapper {
+
+        private volatile String md5;
+
+        public Md5Entity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            MessageDigest digest = DigestUtils.getMd5Digest();
+            md5 = null;
+            super.writeTo(new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    digest.update((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    digest.update(b, off, len);
+                }
+            });
+            md5 = Hex.encodeHexString(digest.digest());
+        }
+
+        /**
+         * @return 已发送内容的MD5, 未发送完毕为null
+         */
+        public String getMd5() {
+            return md5;
+        }
+    }
+
+    /**
+     * 读取时计算MD5的输入流,读到结尾时与ETAG比对,不一致抛出异常
+     */
+    public static class Md5InputStream extends FilterInputStream {
+
+        private final MessageDigest digest = DigestUtils.getMd5Digest();
+
+        private final String eTag;
+
+        private boolean verified;
+
+        /**
+         * @param in
+         * @param eTag 期望的MD5, 为null时不校验
+         */
+        public Md5InputStream(InputStream in, String eTag) {
+            super(in);
+            this.eTag = eTag;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                digest.update((byte) b);
+            } else {
+                verify();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                digest.update(b, off, n);
+            } else if (n < 0) {
+                verify();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int len = read(buffer, 0, buffer.length);
+            return Math.max(len, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * 已读取的内容与ETAG比对,按长度读取未读到结尾时由调用方调用
+         *
+         * @throws IOException
+         */
+        public void verify() throws IOException {
+            if (!verified) {
+                verified = true;
+                check(digest, eTag);
+            }
+        }
+    }
+}
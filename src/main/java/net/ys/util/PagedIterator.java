@@ -0,0 +1,76 @@
+package net.ys.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 按marker分页的惰性迭代器: 当前页取完才请求下一页, 内存中只保留一页
+ *
+ * @param <T>
+ */
+public abstract class PagedIterator<T> implements Iterator<T> {
+
+    private List<T> page;
+
+    private int index;
+
+    private String marker;
+
+    private boolean last;
+
+    private final int limit;
+
+    /**
+     * @param limit 每页数量,返回不足一页时不再请求下一页
+     */
+    protected PagedIterator(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * 请求一页
+     *
+     * @param marker 上一页最后一项,第一页为null
+     * @return 本页内容, 空列表表示没有更多
+     * @throws IOException
+     */
+    protected abstract List<T> fetch(String marker) throws IOException;
+
+    /**
+     * 作为下一页marker的值
+     */
+    protected abstract String marker(T item);
+
+    @Override
+    public boolean hasNext() {
+        while (page == null || index >= page.size()) {
+            if (last) {
+                return false;
+            }
+            try {
+                page = fetch(marker);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            index = 0;
+            if (page.isEmpty()) {
+                last = true;
+                return false;
+            }
+            last = page.size() < limit;
+            marker = marker(page.get(page.size() - 1));
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(index++);
+    }
+}
@@ -0,0 +1,239 @@
+package net.ys.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * swift操作指标: 按操作类型统计耗时分布、传输字节数、按状态码的错误数、进行中请求数与token刷新次数
+ */
+public class SwiftMetrics {
+
+    public static final String OP_AUTH = "auth";
+
+    public static final String OP_UPLOAD = "upload";
+
+    public static final String OP_SEGMENT_UPLOAD = "segment_upload";
+
+    public static final String OP_SPLIT_UPLOAD = "split_upload";
+
+    public static final String OP_MERGE = "merge";
+
+    public static final String OP_DOWNLOAD = "download";
+
+    public static final String OP_HEAD = "head";
+
+    public static final String OP_DELETE = "delete";
+
+    public static final String OP_BULK_DELETE = "bulk_delete";
+
+    public static final String OP_COPY = "copy";
+
+    public static final String OP_CONTAINER = "container";
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentHashMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public SwiftMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 请求开始,上传请求体包装为计数输出
+     *
+     * @param op
+     * @param request
+     * @return 开始时间(纳秒)
+     */
+    public long start(String op, HttpRequestBase request) {
+        inFlight(op).incrementAndGet();
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+            HttpEntity entity = enclosing.getEntity();
+            if (entity != null && !(entity instanceof CountingEntity)) {
+                enclosing.setEntity(new CountingEntity(entity, bytes(op, "out")));
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * 收到响应头,记录耗时与错误状态,响应体包装为计数输入
+     *
+     * @param op
+     * @param start    start()返回值
+     * @param response
+     */
+    public void stop(String op, long start, HttpResponse response) {
+        inFlight(op).decrementAndGet();
+        int code = response.getStatusLine().getStatusCode();
+        timer(op, code < 400 ? "success" : "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (code >= 400) {
+            error(op, String.valueOf(code));
+        }
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            response.setEntity(new CountingEntity(entity, bytes(op, "in")));
+        }
+    }
+
+    /**
+     * 请求异常(未收到响应)
+     *
+     * @param op
+     * @param start start()返回值
+     */
+    public void fail(String op, long start) {
+        inFlight(op).decrementAndGet();
+        timer(op, "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        error(op, "io");
+    }
+
+    /**
+     * 记录不经过单次http请求的整体操作耗时,如分片上传全过程
+     */
+    public void record(String op, long start, boolean success) {
+        timer(op, success ? "success" : "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 连接池状态
+     *
+     * @param pool
+     */
+    public void bindPool(HttpClientPool pool) {
+        registry.gauge("swift.pool.leased", pool, p -> p.getTotalStats().getLeased());
+        registry.gauge("swift.pool.available", pool, p -> p.getTotalStats().getAvailable());
+        registry.gauge("swift.pool.pending", pool, p -> p.getTotalStats().getPending());
+        registry.gauge("swift.pool.max", pool, p -> p.getTotalStats().getMax());
+    }
+
+    /**
+     * 各代理节点的进行中请求数、平均响应时间与是否正常
+     *
+     * @param balancer
+     */
+    public void bindEndpoints(EndpointBalancer balancer) {
+        for (EndpointBalancer.Endpoint endpoint : balancer.getEndpoints()) {
+            Tags tags = Tags.of("endpoint", endpoint.getBase());
+            registry.gauge("swift.endpoint.outstanding", tags, endpoint, EndpointBalancer.Endpoint::getOutstanding);
+            registry.gauge("swift.endpoint.latency", tags, endpoint, EndpointBalancer.Endpoint::getLatency);
+            registry.gauge("swift.endpoint.up", tags, endpoint, e -> e.isUp() ? 1 : 0);
+        }
+    }
+
+    /**
+     * 按请求类型区分的状态指标,如准入控制的进行中与排队数
+     */
+    public <T> void gauge(String name, String type, T state, ToDoubleFunction<T> value) {
+        registry.gauge(name, Tags.of("type", type), state, value);
+    }
+
+    /**
+     * 准入控制拒绝的请求
+     *
+     * @param type
+     */
+    public void admissionRejected(String type) {
+        registry.counter("swift.admission.rejected", "type", type).increment();
+    }
+
+    public void tokenRefresh(boolean success) {
+        registry.counter("swift.token.refresh", "result", success ? "success" : "error").increment();
+    }
+
+    private Timer timer(String op, String result) {
+        return Timer.builder("swift.requests")
+                .description("swift operation latency")
+                .tag("op", op)
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private void error(String op, String status) {
+        registry.counter("swift.errors", "op", op, "status", status).increment();
+    }
+
+    private Counter bytes(String op, String direction) {
+        return Counter.builder("swift.bytes")
+                .baseUnit("bytes")
+                .tag("op", op)
+                .tag("direction", direction)
+                .register(registry);
+    }
+
+    private AtomicInteger inFlight(String op) {
+        return inFlight.computeIfAbsent(op, key -> registry.gauge("swift.requests.active", Tags.of("op", key), new AtomicInteger()));
+    }
+
+    /**
+     * 边传输边计数的请求/响应体
+     */
+    static class CountingEntity extends HttpEntityWrapper {
+
+        private final Counter counter;
+
+        CountingEntity(HttpEntity entity, Counter counter) {
+            super(entity);
+            this.counter = counter;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        counter.increment();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        counter.increment(n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            super.writeTo(new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    counter.increment();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    counter.increment(len);
+                }
+            });
+        }
+    }
+}
@@ -1,31 +1,44 @@
 package net.ys.util;
 
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.bean.BulkResult;
+import net.ys.bean.SwiftContainer;
+import net.ys.bean.SwiftObject;
 import org.apache.commons.io.FileUtils;
 import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.InputStreamEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
 
 import java.io.*;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 
 public class SwiftUtil {
 
-    static String storageUrl;
-    static Header authToken;
-    static long expiresTime;
-
     static String url;
     static String user;
     static String password;
+    static String endpoints;
+
+    static final int LIST_LIMIT = 10000;//swift单次列表上限
+
+    static volatile HttpClientPool httpClientPool;
+
+    static volatile TokenManager tokenManager;
 
     static {
         try {
@@ -34,35 +47,58 @@ public class SwiftUtil {
             url = properties.getProperty("url");
             user = properties.getProperty("user");
             password = properties.getProperty("password");
+            endpoints = properties.getProperty("endpoints");
         } catch (Exception e) {
             throw new ExceptionInInitializerError("load properties error!");
         }
     }
 
     /**
-     * 并且获得url和Token信息
+     * 指定共用的连接池,由Spring容器启动时注入
+     *
+     * @param pool
+     */
+    public static void setHttpClientPool(HttpClientPool pool) {
+        httpClientPool = pool;
+    }
+
+    /**
+     * 指定共用的token管理,由Spring容器启动时注入
+     *
+     * @param manager
+     */
+    public static void setTokenManager(TokenManager manager) {
+        tokenManager = manager;
+    }
+
+    /**
+     * 未在Spring中使用时按默认参数创建连接池
      */
-    private static void genUrlAndToken() throws IOException {
-        if (storageUrl == null || authToken == null || System.currentTimeMillis() > expiresTime) {
-            CloseableHttpClient httpClient = null;
-            try {
-                httpClient = HttpClients.createDefault();
-                HttpGet req = new HttpGet(url);
-                req.addHeader("X-Storage-User", user);
-                req.addHeader("X-Storage-Pass", password);
-                HttpResponse response = httpClient.execute(req);
-                storageUrl = response.getFirstHeader("X-Storage-Url").getValue();
-                authToken = response.getFirstHeader("X-Auth-Token");
-                Header authTokenExpires = response.getFirstHeader("X-Auth-Token-Expires");
-                int value = Integer.parseInt(authTokenExpires.getValue());
-                expiresTime = System.currentTimeMillis() + value * 1000;
-            } finally {
-                if (httpClient != null) {
-                    httpClient.close();
+    private static HttpClientPool getPool() {
+        if (httpClientPool == null) {
+            synchronized (SwiftUtil.class) {
+                if (httpClientPool == null) {
+                    httpClientPool = new HttpClientPool(50, 50, 5000, 60000, 10000, 30000, 60000);
                 }
             }
+        }
+        return httpClientPool;
+    }
 
+    /**
+     * 未在Spring中使用时按config.properties创建token管理
+     */
+    private static TokenManager getTokenManager() {
+        if (tokenManager == null) {
+            synchronized (SwiftUtil.class) {
+                if (tokenManager == null) {
+                    TokenManager manager = new TokenManager(getPool(), url, user, password, 60000);
+                    manager.setBalancer(EndpointBalancer.create(url, endpoints, getPool(), 3, 10000));
+                    tokenManager = manager;
+                }
+            }
         }
+        return tokenManager;
     }
 
     /**
@@ -71,19 +107,14 @@ public class SwiftUtil {
      * @param containerName
      */
     public static boolean createContainer(String containerName) throws IOException {
-        CloseableHttpClient httpClient = null;
+        CloseableHttpResponse response = null;
         try {
-            genUrlAndToken();
-            httpClient = HttpClients.createDefault();
-            HttpPut hpp = new HttpPut(storageUrl + "/" + containerName);
-            hpp.addHeader(authToken);
-            HttpResponse response = httpClient.execute(hpp);
+            HttpPut hpp = new HttpPut();
+            response = getTokenManager().execute(SwiftMetrics.OP_CONTAINER, hpp, "/" + encode(containerName));
             int statusCode = response.getStatusLine().getStatusCode();
             return statusCode < 300;
         } finally {
-            if (httpClient != null) {
-                httpClient.close();
-            }
+            HttpClientPool.release(response);
         }
     }
 
@@ -97,23 +128,18 @@ public class SwiftUtil {
      * @throws IOException
      */
     public static String upload(String containerName, File file, String storeName) throws IOException {
-        CloseableHttpClient httpClient = null;
+        CloseableHttpResponse response = null;
         try {
-            genUrlAndToken();
-            httpClient = HttpClients.createDefault();
-            HttpPut httpPost = new HttpPut(storageUrl + "/" + containerName + "/" + storeName);
-            httpPost.addHeader(authToken);
+            HttpPut httpPost = new HttpPut();
             httpPost.setEntity(new FileEntity(file));
-            HttpResponse response = httpClient.execute(httpPost);
+            response = getTokenManager().execute(SwiftMetrics.OP_UPLOAD, httpPost, encode(containerName, storeName));
             int statusCode = response.getStatusLine().getStatusCode();
             if (statusCode < 300) {
                 return response.getFirstHeader("ETAG").getValue();
             }
             return null;
         } finally {
-            if (httpClient != null) {
-                httpClient.close();
-            }
+            HttpClientPool.release(response);
         }
     }
 
@@ -127,23 +153,18 @@ public class SwiftUtil {
      * @throws IOException
      */
     public static String upload(String containerName, InputStream stream, String storeName) throws IOException {
-        CloseableHttpClient httpClient = null;
+        CloseableHttpResponse response = null;
         try {
-            genUrlAndToken();
-            httpClient = HttpClients.createDefault();
-            HttpPut httpPut = new HttpPut(storageUrl + "/" + containerName + "/" + storeName);
-            httpPut.setHeader(authToken);
+            HttpPut httpPut = new HttpPut();
             httpPut.setEntity(new InputStreamEntity(stream));
-            HttpResponse response = httpClient.execute(httpPut);
+            response = getTokenManager().execute(SwiftMetrics.OP_UPLOAD, httpPut, encode(containerName, storeName));
             int statusCode = response.getStatusLine().getStatusCode();
             if (statusCode < 300) {
                 return response.getFirstHeader("ETAG").getValue();
             }
             return null;
         } finally {
-            if (httpClient != null) {
-                httpClient.close();
-            }
+            HttpClientPool.release(response);
         }
     }
 
@@ -152,55 +173,50 @@ public class SwiftUtil {
      *
      * @param containerName
      * @param storeName
-     * @return 返回文件流
+     * @return 返回文件流, 读取完毕后需关闭以释放连接
      * @throws IOException
      */
     public static InputStream download(String containerName, String storeName) throws IOException {
-        CloseableHttpClient httpClient = null;
-        try {
-            genUrlAndToken();
-            httpClient = HttpClients.createDefault();
-            HttpGet httpget = new HttpGet(storageUrl + "/" + containerName + "/" + storeName);
-            httpget.addHeader(authToken);
-            HttpResponse response = httpClient.execute(httpget);
-            int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode < 300) {
-                HttpEntity entity = response.getEntity();
-                if (entity != null) {
-                    InputStream input = entity.getContent();
-                    String suffix = storeName.substring(storeName.lastIndexOf("."));
-                    File tempFile = File.createTempFile("swift_tmp_", suffix);
-                    FileUtils.copyInputStreamToFile(input, tempFile);
-                    return new FileInputStream(tempFile);
-                }
-            }
-            return null;
-        } finally {
-            if (httpClient != null) {
-                httpClient.close();
-            }
+        return download(containerName, storeName, null);
+    }
+
+    /**
+     * 下载文件指定区间
+     *
+     * @param containerName
+     * @param storeName
+     * @param range         Range请求头, 如bytes=0-1023, 为null时下载整个文件
+     * @return 返回文件流, 读取完毕后需关闭以释放连接; 完整下载普通对象时读到结尾校验MD5, 不一致抛出IOException
+     * @throws IOException
+     */
+    public static InputStream download(String containerName, String storeName, String range) throws IOException {
+        HttpGet httpget = new HttpGet();
+        if (range != null) {
+            httpget.addHeader("Range", range);
+        }
+        CloseableHttpResponse response = getTokenManager().execute(SwiftMetrics.OP_DOWNLOAD, httpget, encode(containerName, storeName));
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode < 300 && response.getEntity() != null) {
+            return new Md5Util.Md5InputStream(response.getEntity().getContent(), Md5Util.verifiableETag(response));//直接返回网络流,读到结尾时校验MD5
         }
+        HttpClientPool.release(response);
+        return null;
     }
 
     /**
-     * 删除容器(容器内不能有对象)
+     * 删除容器(容器内不能有对象, 递归删除见BulkService.deleteContainer)
      *
      * @param containerName
      */
     public static boolean deleteContainer(String containerName) throws IOException {
-        CloseableHttpClient httpClient = null;
+        CloseableHttpResponse response = null;
         try {
-            genUrlAndToken();
-            httpClient = HttpClients.createDefault();
-            HttpDelete httpDelete = new HttpDelete(storageUrl + "/" + containerName);
-            httpDelete.addHeader(authToken);
-            HttpResponse response = httpClient.execute(httpDelete);
+            HttpDelete httpDelete = new HttpDelete();
+            response = getTokenManager().execute(SwiftMetrics.OP_CONTAINER, httpDelete, "/" + encode(containerName));
             int code = response.getStatusLine().getStatusCode();
             return code < 300;
         } finally {
-            if (httpClient != null) {
-                httpClient.close();
-            }
+            HttpClientPool.release(response);
         }
     }
 
@@ -211,90 +227,278 @@ public class SwiftUtil {
      * @param storeName
      */
     public static boolean deleteFile(String containerName, String storeName) throws IOException {
-        CloseableHttpClient httpClient = null;
+        CloseableHttpResponse response = null;
         try {
-            genUrlAndToken();
-            httpClient = HttpClients.createDefault();
-            HttpDelete httpDelete = new HttpDelete(storageUrl + "/" + containerName + "/" + storeName);
-            httpDelete.addHeader(authToken);
-            HttpResponse response = httpClient.execute(httpDelete);
+            HttpDelete httpDelete = new HttpDelete();
+            response = getTokenManager().execute(SwiftMetrics.OP_DELETE, httpDelete, encode(containerName, storeName));
             int code = response.getStatusLine().getStatusCode();
             return code < 300;
         } finally {
-            if (httpClient != null) {
-                httpClient.close();
-            }
+            HttpClientPool.release(response);
         }
     }
 
     /**
-     * 获取容器列表
+     * 删除SLO大对象: 清单与其引用的全部分片在一次请求中删除, 普通对象按普通删除处理
+     *
+     * @param containerName
+     * @param storeName
+     * @return 返回删除结果
      */
-    public static List<String> getContainers() throws IOException {
-        CloseableHttpClient httpClient = null;
+    public static BulkResult deleteManifest(String containerName, String storeName) throws IOException {
+        CloseableHttpResponse response = null;
+        try {
+            HttpDelete httpDelete = new HttpDelete();
+            httpDelete.addHeader("Accept", "application/json");
+            response = getTokenManager().execute(SwiftMetrics.OP_DELETE, httpDelete, encode(containerName, storeName) + "?multipart-manifest=delete");
+            return bulkResult(response, Arrays.asList(containerName + "/" + storeName));
+        } finally {
+            HttpClientPool.release(response);
+        }
+    }
+
+    /**
+     * 读取SLO清单
+     *
+     * @param containerName
+     * @param storeName
+     * @return 清单中的分片(name为/容器/对象), 对象不存在或不是SLO返回null
+     */
+    public static JSONArray getManifest(String containerName, String storeName) throws IOException {
+        CloseableHttpResponse response = null;
         try {
-            genUrlAndToken();
-            httpClient = HttpClients.createDefault();
-            HttpGet httpGet = new HttpGet(storageUrl);
-            httpGet.addHeader(authToken);
-            HttpResponse response = httpClient.execute(httpGet);
+            response = getTokenManager().execute(SwiftMetrics.OP_DOWNLOAD, new HttpGet(), encode(containerName, storeName) + "?multipart-manifest=get");
             int code = response.getStatusLine().getStatusCode();
-            if (code < 300) {
-                HttpEntity entity = response.getEntity();
-                if (entity != null) {
-                    InputStream input = entity.getContent();
-                    ByteArrayOutputStream aos = new ByteArrayOutputStream();
-                    byte bytes[] = new byte[1024];
-                    int len;
-                    while ((len = input.read(bytes)) > 0) {
-                        aos.write(bytes, 0, len);
-                    }
-                    String result = new String(aos.toByteArray(), "UTF-8");
-                    return Arrays.asList(result.split("\n"));
-                }
+            if (code == 404) {
+                return null;
             }
-            return null;
+            if (code >= 300) {
+                throw new IOException("get manifest " + storeName + " failed: " + code);
+            }
+            Header slo = response.getFirstHeader("X-Static-Large-Object");
+            if (slo == null || !"true".equalsIgnoreCase(slo.getValue())) {
+                HttpClientPool.abort(response);//普通对象返回的是内容,不读取
+                response = null;
+                return null;
+            }
+            return JSONArray.fromObject(EntityUtils.toString(response.getEntity(), "UTF-8"));
+        } finally {
+            HttpClientPool.release(response);
+        }
+    }
+
+    /**
+     * 批量删除(bulk中间件), 一次请求删除多个对象, 数量不能超过swift的max_deletes_per_request(默认10000)
+     *
+     * @param paths 容器/对象 形式的路径
+     * @return 返回删除结果
+     */
+    public static BulkResult bulkDelete(List<String> paths) throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (String path : paths) {
+            body.append(encode(path)).append('\n');
+        }
+        CloseableHttpResponse response = null;
+        try {
+            HttpPost httpPost = new HttpPost();
+            httpPost.addHeader("Accept", "application/json");
+            httpPost.setEntity(new ByteArrayEntity(body.toString().getBytes("UTF-8"), ContentType.TEXT_PLAIN));
+            response = getTokenManager().execute(SwiftMetrics.OP_BULK_DELETE, httpPost, "?bulk-delete");
+            return bulkResult(response, paths);
         } finally {
-            if (httpClient != null) {
-                httpClient.close();
+            HttpClientPool.release(response);
+        }
+    }
+
+    /**
+     * 解析bulk-delete与multipart-manifest=delete的json响应, 请求整体失败时全部计为失败
+     */
+    private static BulkResult bulkResult(CloseableHttpResponse response, List<String> paths) throws IOException {
+        int code = response.getStatusLine().getStatusCode();
+        String text = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), "UTF-8");
+        if (code == 404 && paths.size() == 1) {
+            return new BulkResult(0, 1, new ArrayList<String>());
+        }
+        if (code >= 300 || !text.trim().startsWith("{")) {
+            return new BulkResult(code < 300 ? paths.size() : 0, 0, code < 300 ? new ArrayList<String>() : paths);
+        }
+        JSONObject object = JSONObject.fromObject(text);
+        List<String> failed = new ArrayList<>();
+        JSONArray errors = object.optJSONArray("Errors");
+        if (errors != null) {
+            for (int i = 0; i < errors.size(); i++) {
+                String path = errors.getJSONArray(i).getString(0);
+                failed.add(URLDecoder.decode(path.startsWith("/") ? path.substring(1) : path, "UTF-8"));
+            }
+        }
+        String status = object.optString("Response Status", "200");
+        if (failed.isEmpty() && !status.startsWith("2")) {//如400 Bad Request, 无逐项错误
+            failed.addAll(paths);
+        }
+        return new BulkResult(object.optInt("Number Deleted"), object.optInt("Number Not Found"), failed);
+    }
+
+    /**
+     * 路径按段URL编码, 保留分隔符/
+     */
+    public static String encode(String path) throws UnsupportedEncodingException {
+        return URLEncoder.encode(path, "UTF-8").replace("+", "%20").replace("%2F", "/");
+    }
+
+    /**
+     * 对象的请求路径/容器/对象, 所有对象请求都经过这里编码, 对象名含空格、?、#等字符时也能正确访问
+     *
+     * @param containerName 容器
+     * @param storeName     对象名
+     * @return
+     */
+    public static String encode(String containerName, String storeName) {
+        try {
+            return "/" + encode(containerName) + "/" + encode(storeName);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);//UTF-8总是支持
+        }
+    }
+
+    /**
+     * 获取容器列表(全部分页)
+     */
+    public static List<String> getContainers() throws IOException {
+        List<String> names = new ArrayList<>();
+        try {
+            Iterator<SwiftContainer> iterator = listContainers(null, LIST_LIMIT);
+            while (iterator.hasNext()) {
+                names.add(iterator.next().getName());
             }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+        return names;
     }
 
     /**
-     * 获取容器内对象列表
+     * 获取容器内对象列表(全部分页),对象很多时应使用listObjects逐个处理
      *
      * @param containerName 容器名称
      */
     public static List<String> getObjects(String containerName) throws IOException {
-        CloseableHttpClient httpClient = null;
+        List<String> names = new ArrayList<>();
         try {
-            genUrlAndToken();
-            httpClient = HttpClients.createDefault();
-            HttpGet httpGet = new HttpGet(storageUrl + "/" + containerName);
-            httpGet.addHeader(authToken);
-            HttpResponse response = httpClient.execute(httpGet);
-            int code = response.getStatusLine().getStatusCode();
-            if (code < 300) {
-                HttpEntity entity = response.getEntity();
-                if (entity != null) {
-                    InputStream input = entity.getContent();
-                    ByteArrayOutputStream aos = new ByteArrayOutputStream();
-                    byte bytes[] = new byte[1024];
-                    int len;
-                    while ((len = input.read(bytes)) > 0) {
-                        aos.write(bytes, 0, len);
-                    }
-                    String result = new String(aos.toByteArray(), "UTF-8");
-                    return Arrays.asList(result.split("\n"));
+            Iterator<SwiftObject> iterator = listObjects(containerName, null, null, LIST_LIMIT);
+            while (iterator.hasNext()) {
+                names.add(iterator.next().getName());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return names;
+    }
+
+    /**
+     * 惰性遍历容器内对象, 按marker自动翻页, 内存中只保留一页;
+     * 翻页请求失败时迭代器抛出UncheckedIOException
+     *
+     * @param containerName 容器名称
+     * @param prefix        对象名前缀, 可为null
+     * @param delimiter     目录分隔符, 如/, 指定后同一级目录归并为一项(dir=true), 可为null
+     * @param limit         每页数量, 不超过10000
+     * @return
+     */
+    public static Iterator<SwiftObject> listObjects(String containerName, String prefix, String delimiter, int limit) {
+        return new PagedIterator<SwiftObject>(limit) {
+            @Override
+            protected List<SwiftObject> fetch(String marker) throws IOException {
+                return listObjectsPage(containerName, prefix, delimiter, marker, limit);
+            }
+
+            @Override
+            protected String marker(SwiftObject item) {
+                return item.getName();
+            }
+        };
+    }
+
+    /**
+     * 惰性遍历容器列表
+     *
+     * @param prefix 容器名前缀, 可为null
+     * @param limit  每页数量, 不超过10000
+     * @return
+     */
+    public static Iterator<SwiftContainer> listContainers(String prefix, int limit) {
+        return new PagedIterator<SwiftContainer>(limit) {
+            @Override
+            protected List<SwiftContainer> fetch(String marker) throws IOException {
+                List<SwiftContainer> containers = new ArrayList<>();
+                JSONArray array = listPage("", prefix, null, marker, limit);
+                for (int i = 0; i < array.size(); i++) {
+                    JSONObject object = array.getJSONObject(i);
+                    containers.add(new SwiftContainer(object.getString("name"), object.optLong("count"), object.optLong("bytes")));
                 }
+                return containers;
             }
-            return null;
-        } finally {
-            if (httpClient != null) {
-                httpClient.close();
+
+            @Override
+            protected String marker(SwiftContainer item) {
+                return item.getName();
+            }
+        };
+    }
+
+    /**
+     * 获取容器内对象列表的一页
+     *
+     * @param containerName 容器名称
+     * @param prefix        对象名前缀, 可为null
+     * @param delimiter     目录分隔符, 可为null
+     * @param marker        只返回名称大于marker的对象, 第一页为null
+     * @param limit         每页数量, 不超过10000
+     * @return 容器不存在返回空列表
+     */
+    public static List<SwiftObject> listObjectsPage(String containerName, String prefix, String delimiter, String marker, int limit) throws IOException {
+        List<SwiftObject> objects = new ArrayList<>();
+        JSONArray array = listPage("/" + encode(containerName), prefix, delimiter, marker, limit);
+        for (int i = 0; i < array.size(); i++) {
+            JSONObject object = array.getJSONObject(i);
+            if (object.has("subdir")) {
+                objects.add(new SwiftObject(object.getString("subdir"), 0, null, null, null, true));
+            } else {
+                objects.add(new SwiftObject(object.getString("name"), object.optLong("bytes"), object.optString("hash", null),
+                        object.optString("last_modified", null), object.optString("content_type", null), false));
             }
         }
+        return objects;
+    }
+
+    /**
+     * 以json格式请求一页列表
+     */
+    private static JSONArray listPage(String path, String prefix, String delimiter, String marker, int limit) throws IOException {
+        StringBuilder query = new StringBuilder(path).append("?format=json&limit=").append(limit);
+        if (prefix != null) {
+            query.append("&prefix=").append(URLEncoder.encode(prefix, "UTF-8"));
+        }
+        if (delimiter != null) {
+            query.append("&delimiter=").append(URLEncoder.encode(delimiter, "UTF-8"));
+        }
+        if (marker != null) {
+            query.append("&marker=").append(URLEncoder.encode(marker, "UTF-8"));
+        }
+        CloseableHttpResponse response = null;
+        try {
+            HttpGet httpGet = new HttpGet();
+            response = getTokenManager().execute(SwiftMetrics.OP_CONTAINER, httpGet, query.toString());
+            int code = response.getStatusLine().getStatusCode();
+            if (code == 404 || code == 204 || response.getEntity() == null) {
+                return new JSONArray();
+            }
+            if (code >= 300) {
+                throw new IOException("list " + path + " failed: " + code);
+            }
+            return JSONArray.fromObject(EntityUtils.toString(response.getEntity(), "UTF-8"));
+        } finally {
+            HttpClientPool.release(response);
+        }
     }
 
     public static void main(String[] args) throws IOException {
@@ -0,0 +1,132 @@
+package net.ys.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限速: 每秒补充rate个令牌(字节),最多积累1秒的令牌;
+ * 一次取走超过剩余令牌时记为欠账,等待补足后返回,大块数据也能按平均速率发送
+ */
+public class TokenBucket {
+
+    private final long rate;//字节/秒
+
+    private double tokens;
+
+    private long last;
+
+    /**
+     * @param rate 字节/秒
+     */
+    public TokenBucket(long rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.rate = rate;
+        this.tokens = rate;
+        this.last = System.nanoTime();
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    /**
+     * 取走n个令牌,不足时等待
+     *
+     * @param n
+     * @throws InterruptedIOException
+     */
+    public void acquire(long n) throws InterruptedIOException {
+        long wait = reserve(n);
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);//在锁外等待
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("throttle interrupted");
+            }
+        }
+    }
+
+    /**
+     * 预扣令牌
+     *
+     * @return 需要等待的纳秒数
+     */
+    private synchronized long reserve(long n) {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - last) * rate / 1e9);
+        last = now;
+        tokens -= n;
+        return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+    }
+
+    /**
+     * 从所有桶中取走n个令牌
+     */
+    static void acquire(TokenBucket[] buckets, long n) throws InterruptedIOException {
+        for (TokenBucket bucket : buckets) {
+            if (bucket != null) {
+                bucket.acquire(n);
+            }
+        }
+    }
+
+    /**
+     * 读取限速
+     *
+     * @param in
+     * @param buckets 可包含null
+     * @return
+     */
+    public static InputStream throttle(InputStream in, TokenBucket... buckets) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    acquire(buckets, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    acquire(buckets, n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * 写出限速
+     *
+     * @param out
+     * @param buckets 可包含null
+     * @return
+     */
+    public static OutputStream throttle(OutputStream out, TokenBucket... buckets) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                acquire(buckets, 1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                acquire(buckets, len);
+                out.write(b, off, len);
+            }
+        };
+    }
+}
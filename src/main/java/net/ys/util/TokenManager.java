@@ -0,0 +1,306 @@
+package net.ys.util;
+
+import net.ys.bean.AuthToken;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 管理swift认证token: 并发时只发起一次认证,过期前后台提前续期,遇到401重新认证后重试一次;
+ * 配置多个代理节点时按EndpointBalancer选择节点,幂等且请求体可重复的请求在节点失败时换节点重试
+ */
+public class TokenManager implements Closeable {
+
+    private static final long RETRY_DELAY = 5000;
+
+    private final HttpClientPool httpClientPool;
+
+    private final List<String> urls;
+
+    private volatile int authIndex;//上次认证成功的地址
+
+    private final String user;
+
+    private final String password;
+
+    private final long refreshBefore;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile AuthToken token;
+
+    private volatile SwiftMetrics metrics;
+
+    private volatile EndpointBalancer balancer;
+
+    /**
+     * @param httpClientPool 连接池
+     * @param url            认证地址,多个以逗号分隔,失败时依次尝试
+     * @param user           用户
+     * @param password       密码
+     * @param refreshBefore  过期前多久(毫秒)开始后台续期
+     */
+    public TokenManager(HttpClientPool httpClientPool, String url, String user, String password, long refreshBefore) {
+        this.httpClientPool = httpClientPool;
+        this.urls = EndpointBalancer.split(url);
+        this.user = user;
+        this.password = password;
+        this.refreshBefore = refreshBefore;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "swift-token-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void setMetrics(SwiftMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setBalancer(EndpointBalancer balancer) {
+        this.balancer = balancer;
+    }
+
+    public EndpointBalancer getBalancer() {
+        return balancer;
+    }
+
+    /**
+     * 请求使用的存储地址,配置多个节点时轮流选择正常节点,用于不经过execute的请求
+     *
+     * @param current
+     * @return
+     */
+    public String storageUrl(AuthToken current) {
+        EndpointBalancer balancer = this.balancer;
+        return balancer == null ? current.getStorageUrl() : balancer.storageUrl(balancer.next(), current.getStorageUrl());
+    }
+
+    /**
+     * 后台预先获取token,避免第一个请求等待认证
+     */
+    public void start() {
+        scheduler.execute(() -> refreshQuietly(null));
+    }
+
+    /**
+     * 获取当前有效token,仅在没有或已过期时同步认证
+     */
+    public AuthToken getToken() throws IOException {
+        AuthToken current = token;
+        if (current != null && !current.isExpired()) {
+            return current;
+        }
+        return refresh(current);
+    }
+
+    /**
+     * 当前有效token,没有或已过期返回null,不发起认证
+     */
+    public AuthToken peekToken() {
+        AuthToken current = token;
+        return current != null && !current.isExpired() ? current : null;
+    }
+
+    /**
+     * 刷新token,多个线程同时刷新同一个旧token时只认证一次
+     *
+     * @param stale 调用方认为已失效的token
+     */
+    public AuthToken refresh(AuthToken stale) throws IOException {
+        lock.lock();
+        try {
+            AuthToken current = token;
+            if (current != null && current != stale && !current.isExpired()) {
+                return current;//其他线程已刷新
+            }
+            SwiftMetrics metrics = this.metrics;
+            long start = metrics == null ? 0 : System.nanoTime();
+            try {
+                current = authenticate();
+            } catch (IOException | RuntimeException e) {
+                if (metrics != null) {
+                    metrics.tokenRefresh(false);
+                    metrics.record(SwiftMetrics.OP_AUTH, start, false);
+                }
+                throw e;
+            }
+            if (metrics != null) {
+                metrics.tokenRefresh(true);
+                metrics.record(SwiftMetrics.OP_AUTH, start, true);
+            }
+            token = current;
+            scheduleRefresh(current);
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 执行请求,自动设置存储地址与token,401时重新认证后重试一次(请求体可重复时)
+     *
+     * @param op      操作类型,用于指标统计,见SwiftMetrics.OP_*
+     * @param request 请求
+     * @param path    相对存储地址的路径,如 /container/object
+     * @return 响应, 调用方负责HttpClientPool.release
+     * @throws IOException
+     */
+    public CloseableHttpResponse execute(String op, HttpRequestBase request, String path) throws IOException {
+        SwiftMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : metrics.start(op, request);
+        CloseableHttpResponse response;
+        try {
+            AuthToken current = getToken();
+            response = balance(request, path, current);
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED && isRepeatable(request)) {
+                HttpClientPool.release(response);
+                response = balance(request, path, refresh(current));
+            }
+        } catch (IOException | RuntimeException e) {
+            if (metrics != null) {
+                metrics.fail(op, start);
+            }
+            throw e;
+        }
+        if (metrics != null) {
+            metrics.stop(op, start, response);
+        }
+        return response;
+    }
+
+    /**
+     * 选择节点执行,连接异常或502/503/504时,幂等且请求体可重复的请求换未尝试过的节点重试
+     */
+    private CloseableHttpResponse balance(HttpRequestBase request, String path, AuthToken current) throws IOException {
+        EndpointBalancer balancer = this.balancer;
+        if (balancer == null) {
+            return execute(request, current.getStorageUrl() + path, current);
+        }
+        boolean retryable = !"POST".equals(request.getMethod()) && isRepeatable(request);
+        List<EndpointBalancer.Endpoint> tried = new ArrayList<>();
+        while (true) {
+            EndpointBalancer.Endpoint endpoint = balancer.select(tried);
+            tried.add(endpoint);
+            long start = balancer.begin(endpoint);
+            CloseableHttpResponse response;
+            try {
+                response = execute(request, balancer.storageUrl(endpoint, current.getStorageUrl()) + path, current);
+            } catch (IOException e) {
+                boolean interrupted = Thread.currentThread().isInterrupted();
+                balancer.fail(endpoint, !interrupted);
+                if (interrupted || !retryable || tried.size() >= balancer.getEndpoints().size()) {
+                    throw e;
+                }
+                continue;
+            }
+            boolean healthy = balancer.complete(endpoint, start, response);
+            response = balancer.track(endpoint, response);
+            if (healthy || !retryable || tried.size() >= balancer.getEndpoints().size()) {
+                return response;
+            }
+            HttpClientPool.release(response);
+        }
+    }
+
+    private CloseableHttpResponse execute(HttpRequestBase request, String url, AuthToken current) throws IOException {
+        request.setURI(URI.create(url));
+        request.setHeader("X-Auth-Token", current.getToken());
+        return httpClientPool.getClient().execute(request);
+    }
+
+    private boolean isRepeatable(HttpRequestBase request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            return entity == null || entity.isRepeatable();
+        }
+        return true;
+    }
+
+    /**
+     * 从上次成功的地址开始依次认证
+     */
+    private AuthToken authenticate() throws IOException {
+        IOException failure = null;
+        int from = authIndex;
+        for (int i = 0; i < urls.size(); i++) {
+            int index = (from + i) % urls.size();
+            try {
+                AuthToken current = authenticate(urls.get(index));
+                authIndex = index;
+                return current;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        throw failure == null ? new IOException("swift auth url not configured") : failure;
+    }
+
+    private AuthToken authenticate(String url) throws IOException {
+        CloseableHttpResponse response = null;
+        try {
+            HttpGet req = new HttpGet(url);
+            req.addHeader("X-Storage-User", user);
+            req.addHeader("X-Storage-Pass", password);
+            response = httpClientPool.getClient().execute(req);
+            Header storageUrl = response.getFirstHeader("X-Storage-Url");
+            Header authToken = response.getFirstHeader("X-Auth-Token");
+            if (response.getStatusLine().getStatusCode() >= 300 || storageUrl == null || authToken == null) {
+                throw new IOException("swift auth failed: " + response.getStatusLine());
+            }
+            long expiresTime = 0;
+            Header expires = response.getFirstHeader("X-Auth-Token-Expires");
+            if (expires != null) {
+                expiresTime = System.currentTimeMillis() + (long) (Double.parseDouble(expires.getValue()) * 1000);
+            }
+            return new AuthToken(storageUrl.getValue(), authToken.getValue(), expiresTime);
+        } finally {
+            HttpClientPool.release(response);
+        }
+    }
+
+    private void scheduleRefresh(AuthToken current) {
+        if (current.getExpiresTime() <= 0) {
+            return;//未返回过期时间,依赖401重新认证
+        }
+        long lifetime = current.getExpiresTime() - System.currentTimeMillis();
+        //有效期不超过refreshBefore时按提前量会立即再次续期,形成认证死循环,改为有效期过半时续期且不短于重试间隔
+        long delay = lifetime > refreshBefore ? lifetime - refreshBefore : Math.max(lifetime / 2, RETRY_DELAY);
+        scheduler.schedule(() -> refreshQuietly(current), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshQuietly(AuthToken stale) {
+        try {
+            if (token == stale) {
+                refresh(stale);
+            }
+        } catch (Exception e) {
+            scheduler.schedule(() -> refreshQuietly(stale), RETRY_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        EndpointBalancer balancer = this.balancer;
+        if (balancer != null) {
+            balancer.close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package net.ys.util;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 虚拟线程(JDK 21+)支持: 项目按Java 8编译,通过反射创建;运行环境不支持时退回平台线程。
+ * 虚拟线程模式下每个任务一个线程,并发数由信号量限制,阻塞等待不占用平台线程
+ */
+public class VirtualThreads {
+
+    private static final Method OF_VIRTUAL;
+
+    private static final Method NAME;
+
+    private static final Method FACTORY;
+
+    private static final Method PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method perTaskExecutor = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        PER_TASK_EXECUTOR = perTaskExecutor;
+    }
+
+    /**
+     * 当前JDK是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * 虚拟线程工厂,线程名为prefix加序号
+     *
+     * @param prefix
+     * @return
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("virtual threads require JDK 21+");
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = NAME.invoke(builder, prefix, 1L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("create virtual thread factory failed", e);
+        }
+    }
+
+    /**
+     * 每个任务一个虚拟线程,不限制并发
+     *
+     * @param prefix 线程名前缀
+     * @return
+     */
+    public static ExecutorService newPerTaskExecutor(String prefix) {
+        try {
+            return (ExecutorService) PER_TASK_EXECUTOR.invoke(null, factory(prefix));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("create virtual thread executor failed", e);
+        }
+    }
+
+    /**
+     * 按模式创建后台任务执行器
+     *
+     * @param virtual  是否使用虚拟线程,运行环境不支持时忽略
+     * @param parallel 最大并发数: 平台线程模式为线程数,虚拟线程模式为信号量许可数
+     * @param prefix   线程名前缀,如 swift-segment-
+     * @return
+     */
+    public static ExecutorService newExecutor(boolean virtual, int parallel, String prefix) {
+        if (virtual && isSupported()) {
+            return new BoundedExecutor(newPerTaskExecutor(prefix), parallel);
+        }
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(parallel, r -> {
+            Thread t = new Thread(r, prefix + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 以信号量限制并发的执行器: 任务立即获得一个线程,在线程内等待许可,不排队占用平台线程
+     */
+    static class BoundedExecutor extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+
+        private final Semaphore permits;
+
+        BoundedExecutor(ExecutorService delegate, int parallel) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(parallel);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    if (command instanceof Future) {
+                        ((Future<?>) command).cancel(false);//等待许可时被中断,任务不再执行
+                    }
+                    return;
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
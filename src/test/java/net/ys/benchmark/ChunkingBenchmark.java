@@ -0,0 +1,89 @@
+package net.ys.benchmark;
+
+import net.ys.bean.SegFile;
+import net.ys.util.FastCdc;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分块单核吞吐: 等长切分(仅计算哈希)与FastCDC(不计算/计算哈希)对比,
+ * 每次调用处理dataMb兆数据, MB/s = ops/s * dataMb
+ * <p>
+ * 运行: mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=ChunkingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkingBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChunkingBenchmark.class);
+
+    @Param({"64"})
+    private int dataMb;
+
+    @Param({"1024", "8192"})
+    private int avgKb;
+
+    private byte[] data;
+
+    private FastCdc fastCdc;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        data = new byte[dataMb * 1024 * 1024];
+        new Random(dataMb).nextBytes(data);
+        fastCdc = new FastCdc(avgKb * 1024 / 4, avgKb * 1024, avgKb * 1024 * 4);
+
+        byte[] shifted = new byte[data.length + 1];//中间插入一个字节后可复用的分片比例
+        System.arraycopy(data, 0, shifted, 0, data.length / 2);
+        System.arraycopy(data, data.length / 2, shifted, data.length / 2 + 1, data.length - data.length / 2);
+        Set<String> names = new HashSet<>();
+        for (SegFile segFile : fastCdc.split(new ByteArrayInputStream(data), true)) {
+            names.add(segFile.getTempName());
+        }
+        List<SegFile> after = fastCdc.split(new ByteArrayInputStream(shifted), true);
+        int reused = 0;
+        for (SegFile segFile : after) {
+            if (names.contains(segFile.getTempName())) {
+                reused++;
+            }
+        }
+        LOGGER.info("cdc segments: {}, reused after 1-byte insert: {}/{}", names.size(), reused, after.size());
+    }
+
+    @Benchmark
+    public byte[] fixedHash() {
+        int segLen = avgKb * 1024;
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        byte[] last = null;
+        for (int offset = 0; offset < data.length; offset += segLen) {
+            digest.update(data, offset, Math.min(segLen, data.length - offset));
+            last = digest.digest();
+        }
+        return last;
+    }
+
+    @Benchmark
+    public List<SegFile> cdc() throws IOException {
+        return fastCdc.split(new ByteArrayInputStream(data), false);
+    }
+
+    @Benchmark
+    public List<SegFile> cdcHash() throws IOException {
+        return fastCdc.split(new ByteArrayInputStream(data), true);
+    }
+}
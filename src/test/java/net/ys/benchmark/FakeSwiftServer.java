@@ -0,0 +1,467 @@
+package net.ys.benchmark;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内存中的swift替身,支持认证、TempURL、健康检查、多节点共用存储、对象PUT/GET/HEAD/DELETE、元数据、Range、SLO清单(multipart-manifest=put/get/delete)与bulk-delete
+ */
+public class FakeSwiftServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FakeSwiftServer.class);
+
+    private static final String ACCOUNT = "/v1/AUTH_test";
+
+    private final HttpServer server;
+
+    private final ConcurrentSkipListMap<String, StoredObject> objects;
+
+    private final Map<String, String> accountMeta;//X-Account-Meta-*,如Temp-URL-Key
+
+    private volatile int tokenExpires = 86400;//X-Auth-Token-Expires(秒)
+
+    private final AtomicInteger authCount = new AtomicInteger();
+
+    private volatile int corruptPuts;//之后多少次普通对象PUT存入损坏的数据,模拟传输中数据被改写
+
+    static class StoredObject {
+        final byte[] data;//普通对象内容
+        final String[] segments;//SLO清单引用的分片路径
+        final String eTag;
+
+        final Map<String, String> meta = new HashMap<>();//X-Object-Meta-*与Content-Type
+
+        StoredObject(byte[] data, String[] segments, String eTag) {
+            this.data = data;
+            this.segments = segments;
+            this.eTag = eTag;
+        }
+    }
+
+    public FakeSwiftServer() throws IOException {
+        this(new ConcurrentSkipListMap<>(), new ConcurrentHashMap<>());
+    }
+
+    /**
+     * 与cluster共用存储的另一个代理节点
+     */
+    public FakeSwiftServer(FakeSwiftServer cluster) throws IOException {
+        this(cluster.objects, cluster.accountMeta);
+    }
+
+    private FakeSwiftServer(ConcurrentSkipListMap<String, StoredObject> objects, Map<String, String> accountMeta) throws IOException {
+        this.objects = objects;
+        this.accountMeta = accountMeta;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "fake-swift");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.createContext("/auth/v1.0", this::auth);
+        server.createContext(ACCOUNT, this::storage);
+        server.createContext("/healthcheck", exchange -> send(exchange, 200, "OK".getBytes(StandardCharsets.UTF_8)));
+        server.start();
+    }
+
+    public String getAuthUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/auth/v1.0";
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int size() {
+        return objects.size();
+    }
+
+    public void setTokenExpires(int seconds) {
+        tokenExpires = seconds;
+    }
+
+    public int getAuthCount() {
+        return authCount.get();
+    }
+
+    public boolean contains(String path) {
+        return objects.containsKey(path);
+    }
+
+    /**
+     * 之后n次普通对象PUT翻转第一个字节后存储,返回存储内容的ETAG
+     */
+    public void corruptPuts(int n) {
+        corruptPuts = n;
+    }
+
+    private void auth(HttpExchange exchange) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("X-Storage-Url", "http://127.0.0.1:" + server.getAddress().getPort() + ACCOUNT);
+        headers.add("X-Auth-Token", "AUTH_tk_fake");
+        headers.add("X-Auth-Token-Expires", String.valueOf(tokenExpires));
+        authCount.incrementAndGet();
+        send(exchange, 200, null);
+    }
+
+    private void storage(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath().substring(ACCOUNT.length());
+            String query = exchange.getRequestURI().getQuery();
+            if (query != null && query.contains("temp_url_sig=") && !validTempUrl(exchange, exchange.getRequestURI().getRawQuery())) {
+                send(exchange, 401, null);
+                return;
+            }
+            switch (exchange.getRequestMethod()) {
+                case "PUT":
+                    put(exchange, path, query);
+                    break;
+                case "GET":
+                case "HEAD":
+                    get(exchange, path, query);
+                    break;
+                case "DELETE":
+                    delete(exchange, path, query);
+                    break;
+                case "POST":
+                    if (path.isEmpty() && (query == null || !query.contains("bulk-delete"))) {
+                        postAccount(exchange);
+                        break;
+                    }
+                    bulkDelete(exchange, query);
+                    break;
+                default:
+                    send(exchange, 405, null);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * TempURL: HMAC(Temp-URL-Key, 方法\n过期时间\n路径), 签名长度区分sha1/sha256
+     */
+    private boolean validTempUrl(HttpExchange exchange, String query) {
+        String key = accountMeta.get("x-account-meta-temp-url-key");
+        Map<String, String> params = params(query);
+        String sig = params.get("temp_url_sig");
+        String expires = params.get("temp_url_expires");
+        if (key == null || sig == null || expires == null || Long.parseLong(expires) < System.currentTimeMillis() / 1000) {
+            return false;
+        }
+        String method = "HEAD".equals(exchange.getRequestMethod()) ? "GET" : exchange.getRequestMethod();
+        String body = method + "\n" + expires + "\n" + exchange.getRequestURI().getPath();
+        HmacAlgorithms algorithm = sig.length() == 64 ? HmacAlgorithms.HMAC_SHA_256 : HmacAlgorithms.HMAC_SHA_1;
+        return new HmacUtils(algorithm, key).hmacHex(body).equals(sig);
+    }
+
+    private static Map<String, String> params(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    try {
+                        params.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                    } catch (UnsupportedEncodingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+        return params;
+    }
+
+    private void postAccount(HttpExchange exchange) throws IOException {
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            if (header.getKey().toLowerCase().startsWith("x-account-meta-")) {
+                accountMeta.put(header.getKey().toLowerCase(), header.getValue().get(0));
+            }
+        }
+        send(exchange, 204, null);
+    }
+
+    private void put(HttpExchange exchange, String path, String query) throws IOException {
+        byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+        if (path.lastIndexOf('/') <= 0) {//创建容器
+            send(exchange, 201, null);
+            return;
+        }
+        StoredObject object;
+        String copyFrom = exchange.getRequestHeaders().getFirst("X-Copy-From");
+        if (copyFrom != null) {//服务端复制,大对象复制拼接后的内容
+            StoredObject source = objects.get(URLDecoder.decode(copyFrom, "UTF-8"));
+            if (source == null) {
+                send(exchange, 404, null);
+                return;
+            }
+            byte[] data = content(source);
+            object = new StoredObject(data, null, DigestUtils.md5Hex(data));
+            object.meta.putAll(source.meta);
+        } else if (query != null && query.contains("multipart-manifest=put")) {
+            JSONArray manifest = JSONArray.fromObject(new String(body, StandardCharsets.UTF_8));
+            String[] segments = new String[manifest.size()];
+            StringBuilder eTags = new StringBuilder();
+            for (int i = 0; i < manifest.size(); i++) {
+                JSONObject segment = manifest.getJSONObject(i);
+                segments[i] = "/" + segment.getString("path");
+                StoredObject stored = objects.get(segments[i]);
+                if (stored == null) {
+                    send(exchange, 400, null);
+                    return;
+                }
+                eTags.append(stored.eTag);
+            }
+            object = new StoredObject(null, segments, "\"" + DigestUtils.md5Hex(eTags.toString()) + "\"");
+        } else {
+            if (corruptPuts > 0 && body.length > 0) {
+                corruptPuts--;
+                body[0] ^= 1;
+            }
+            object = new StoredObject(body, null, DigestUtils.md5Hex(body));
+        }
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase();
+            if (name.startsWith("x-object-meta-") || name.equals("content-type")) {
+                object.meta.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        objects.put(path, object);
+        exchange.getResponseHeaders().add("Etag", object.eTag);
+        send(exchange, 201, null);
+    }
+
+    private void delete(HttpExchange exchange, String path, String query) throws IOException {
+        StoredObject object = objects.remove(path);
+        if (object == null) {
+            send(exchange, 404, null);
+            return;
+        }
+        if (object.segments != null && query != null && query.contains("multipart-manifest=delete")) {
+            for (String segment : object.segments) {
+                objects.remove(segment);
+            }
+        }
+        send(exchange, 204, null);
+    }
+
+    private void bulkDelete(HttpExchange exchange, String query) throws IOException {
+        if (query == null || !query.contains("bulk-delete")) {
+            send(exchange, 405, null);
+            return;
+        }
+        int deleted = 0;
+        int notFound = 0;
+        String body = new String(IOUtils.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        for (String line : body.split("\n")) {
+            if (!line.trim().isEmpty()) {
+                if (objects.remove("/" + URLDecoder.decode(line.trim(), "UTF-8")) == null) {
+                    notFound++;
+                } else {
+                    deleted++;
+                }
+            }
+        }
+        JSONObject result = new JSONObject();
+        result.put("Number Deleted", deleted);
+        result.put("Number Not Found", notFound);
+        result.put("Response Status", "200 OK");
+        result.put("Errors", new JSONArray());
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        send(exchange, 200, result.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void get(HttpExchange exchange, String path, String query) throws IOException {
+        if (path.isEmpty()) {//账户下的容器列表,不分页
+            for (Map.Entry<String, String> meta : accountMeta.entrySet()) {
+                exchange.getResponseHeaders().add(meta.getKey(), meta.getValue());
+            }
+            Map<String, JSONObject> containers = new TreeMap<>();
+            for (Map.Entry<String, StoredObject> entry : objects.entrySet()) {
+                String name = entry.getKey().substring(1, entry.getKey().indexOf('/', 1));
+                JSONObject container = containers.computeIfAbsent(name, key -> {
+                    JSONObject object = new JSONObject();
+                    object.put("name", key);
+                    object.put("count", 0);
+                    object.put("bytes", 0);
+                    return object;
+                });
+                byte[] data = entry.getValue().data;
+                container.put("count", container.getLong("count") + 1);
+                container.put("bytes", container.getLong("bytes") + (data == null ? 0 : data.length));
+            }
+            boolean first = exchange.getRequestURI().getQuery() == null || !exchange.getRequestURI().getQuery().contains("marker=");
+            send(exchange, first && !containers.isEmpty() ? 200 : 204, JSONArray.fromObject(containers.values()).toString().getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        if (path.lastIndexOf('/') <= 0) {//容器列表
+            list(exchange, path);
+            return;
+        }
+        StoredObject object = objects.get(path);
+        if (object == null) {
+            send(exchange, 404, null);
+            return;
+        }
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Etag", object.eTag);
+        headers.add("Accept-Ranges", "bytes");
+        for (Map.Entry<String, String> meta : object.meta.entrySet()) {
+            headers.add(meta.getKey(), meta.getValue());
+        }
+        if (object.eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            send(exchange, 304, null);
+            return;
+        }
+        if (object.segments != null) {
+            headers.add("X-Static-Large-Object", "True");
+        }
+        if (object.segments != null && query != null && query.contains("multipart-manifest=get")) {
+            JSONArray manifest = new JSONArray();
+            for (String segment : object.segments) {
+                StoredObject stored = objects.get(segment);
+                JSONObject item = new JSONObject();
+                item.put("name", segment);
+                item.put("bytes", stored == null ? 0 : stored.data.length);
+                item.put("hash", stored == null ? "" : stored.eTag);
+                manifest.add(item);
+            }
+            send(exchange, 200, manifest.toString().getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        byte[] data = content(object);
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] pos = range.substring(6).split("-", -1);
+            long first = pos[0].isEmpty() ? Math.max(data.length - Long.parseLong(pos[1]), 0) : Long.parseLong(pos[0]);
+            long last = pos[0].isEmpty() || pos[1].isEmpty() ? data.length - 1 : Math.min(Long.parseLong(pos[1]), data.length - 1);
+            if (first >= data.length) {
+                headers.add("Content-Range", "bytes */" + data.length);
+                send(exchange, 416, null);
+                return;
+            }
+            headers.add("Content-Range", "bytes " + first + "-" + last + "/" + data.length);
+            byte[] part = new byte[(int) (last - first + 1)];
+            System.arraycopy(data, (int) first, part, 0, part.length);
+            send(exchange, 206, part);
+            return;
+        }
+        send(exchange, 200, data);
+    }
+
+    /**
+     * 容器内对象列表, 支持format=json、limit、marker、prefix、delimiter
+     */
+    private void list(HttpExchange exchange, String path) throws IOException {
+        Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+        int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : 10000;
+        String prefix = params.getOrDefault("prefix", "");
+        String delimiter = params.get("delimiter");
+        String marker = params.get("marker");
+        boolean json = "json".equals(params.get("format"));
+
+        String base = path + "/";
+        JSONArray array = new JSONArray();
+        StringBuilder names = new StringBuilder();
+        String lastDir = null;
+        for (Map.Entry<String, StoredObject> entry : objects.tailMap(base + prefix).entrySet()) {
+            if (array.size() >= limit || !entry.getKey().startsWith(base + prefix)) {
+                break;
+            }
+            String name = entry.getKey().substring(base.length());
+            if (marker != null && name.compareTo(marker) <= 0) {
+                continue;
+            }
+            int dir = delimiter == null ? -1 : name.indexOf(delimiter, prefix.length());
+            JSONObject object = new JSONObject();
+            if (dir >= 0) {
+                String subdir = name.substring(0, dir + delimiter.length());
+                if (subdir.equals(lastDir) || (marker != null && subdir.compareTo(marker) <= 0)) {
+                    continue;
+                }
+                lastDir = subdir;
+                object.put("subdir", subdir);
+                name = subdir;
+            } else {
+                StoredObject stored = entry.getValue();
+                object.put("name", name);
+                object.put("bytes", stored.data == null ? 0 : stored.data.length);
+                object.put("hash", stored.eTag.replace("\"", ""));
+                object.put("last_modified", "2019-01-01T00:00:00.000000");
+                object.put("content_type", "application/octet-stream");
+            }
+            array.add(object);
+            names.append(name).append('\n');
+        }
+        if (array.isEmpty()) {
+            send(exchange, 204, null);
+            return;
+        }
+        send(exchange, 200, (json ? array.toString() : names.toString()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private byte[] content(StoredObject object) throws IOException {
+        if (object.segments == null) {
+            return object.data;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (String segment : object.segments) {
+            StoredObject stored = objects.get(segment);
+            if (stored == null) {
+                throw new IOException("missing segment " + segment);
+            }
+            bos.write(stored.data);
+        }
+        return bos.toByteArray();
+    }
+
+    private void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+        if (body == null || code == 204 || code == 304) {
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+        if (head) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * 便于单独启动调试: java net.ys.benchmark.FakeSwiftServer
+     */
+    public static void main(String[] args) throws IOException {
+        FakeSwiftServer server = new FakeSwiftServer();
+        LOGGER.info("fake swift auth url: {}", server.getAuthUrl());
+    }
+}
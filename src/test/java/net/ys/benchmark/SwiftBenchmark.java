@@ -0,0 +1,134 @@
+package net.ys.benchmark;
+
+import net.ys.SwiftApplication;
+import net.ys.bean.SegFile;
+import net.ys.service.UploadService;
+import net.ys.util.SwiftUtil;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上传/切分/下载性能测试,swift由FakeSwiftServer替代
+ * <p>
+ * 运行: mvn -Pbenchmark test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SwiftBenchmark {
+
+    private static final String CONTAINER = "bench_files";
+
+    private static final String SEG_CONTAINER = "bench_files_segments";
+
+    @Param({"65536", "1048576", "16777216"})
+    private int objectSize;
+
+    @Param({"1", "4"})
+    private int segmentMb;
+
+    private FakeSwiftServer server;
+
+    private ConfigurableApplicationContext context;
+
+    private UploadService uploadService;
+
+    private File workDir;
+
+    private File srcFile;
+
+    private byte[] data;
+
+    private final AtomicLong seq = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new FakeSwiftServer();
+        workDir = Files.createTempDirectory("swift-bench").toFile();
+        data = new byte[objectSize];
+        new Random(objectSize).nextBytes(data);
+        srcFile = new File(workDir, "src.bin");
+        FileUtils.writeByteArrayToFile(srcFile, data);
+        FileUtils.forceMkdir(new File(workDir, "segments"));
+
+        context = new SpringApplicationBuilder(SwiftApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--swift.url=" + server.getAuthUrl(),//命令行参数优先于application.yml
+                        "--swift.container=" + CONTAINER,
+                        "--swift.segContainer=" + SEG_CONTAINER,
+                        "--swift.perLen=" + segmentMb,
+                        "--swift.srcFilePath=" + srcFile.getAbsolutePath(),
+                        "--swift.desPath=" + new File(workDir, "segments").getAbsolutePath(),
+                        "--swift.cleanup.dir=" + new File(workDir, "cleanup").getAbsolutePath(),
+                        "--swift.journal.dir=" + new File(workDir, "journal").getAbsolutePath(),
+                        "--swift.cache.diskDir=" + new File(workDir, "cache").getAbsolutePath());
+        uploadService = context.getBean(UploadService.class);
+        uploadService.uploadFile(new ByteArrayInputStream(data), data.length, CONTAINER, "download.bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        server.stop();
+        FileUtils.deleteQuietly(workDir);
+    }
+
+    @Benchmark
+    public String uploadFile() throws IOException {
+        return uploadService.uploadFile(new ByteArrayInputStream(data), data.length, CONTAINER, "upload_" + seq.incrementAndGet());
+    }
+
+    @Benchmark
+    public void downloadFile(Blackhole blackhole) throws IOException {
+        HttpEntity entity = uploadService.downloadFile("download.bin");
+        try {
+            blackhole.consume(EntityUtils.toByteArray(entity));
+        } finally {
+            EntityUtils.consumeQuietly(entity);
+        }
+    }
+
+    @Benchmark
+    public List<SegFile> splitFile() throws IOException {
+        List<SegFile> segFiles = uploadService.splitFile(srcFile, segmentMb * 1024 * 1024);
+        FileUtils.cleanDirectory(new File(workDir, "segments"));
+        return segFiles;
+    }
+
+    @Benchmark
+    public String splitUpload() throws IOException {
+        return uploadService.splitUpload();
+    }
+
+    @Benchmark
+    public String swiftUtilUpload() throws IOException {
+        return SwiftUtil.upload(CONTAINER, new ByteArrayInputStream(data), "util_" + seq.incrementAndGet());
+    }
+
+    @Benchmark
+    public void swiftUtilDownload(Blackhole blackhole) throws IOException {
+        try (InputStream in = SwiftUtil.download(CONTAINER, "download.bin")) {
+            blackhole.consume(IOUtils.toByteArray(in));
+        }
+    }
+}
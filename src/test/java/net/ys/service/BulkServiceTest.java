@@ -0,0 +1,78 @@
+package net.ys.service;
+
+import net.ys.benchmark.FakeSwiftServer;
+import net.ys.util.HttpClientPool;
+import net.ys.util.SwiftMetrics;
+import net.ys.util.SwiftUtil;
+import net.ys.util.TokenManager;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkServiceTest {
+
+    private FakeSwiftServer server;
+
+    private HttpClientPool httpClientPool;
+
+    private TokenManager tokenManager;
+
+    private BulkService bulkService;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSwiftServer();
+        httpClientPool = new HttpClientPool(20, 10, 1000, 5000, 1000, 30000, 60000);
+        tokenManager = new TokenManager(httpClientPool, server.getAuthUrl(), "test:tester", "testing", 60000);
+        SwiftUtil.setTokenManager(tokenManager);
+        bulkService = new BulkService();
+        ReflectionTestUtils.setField(bulkService, "dedup", true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SwiftUtil.setTokenManager(null);
+        tokenManager.close();
+        httpClientPool.close();
+        server.stop();
+    }
+
+    private void put(String path, byte[] data) throws Exception {
+        HttpPut put = new HttpPut();
+        put.setEntity(new ByteArrayEntity(data));
+        HttpClientPool.release(tokenManager.execute(SwiftMetrics.OP_UPLOAD, put, path));
+    }
+
+    @Test
+    public void dedupDeleteRemovesRandomNamedSegmentsOnly() throws Exception {
+        byte[] shared = "shared".getBytes(StandardCharsets.UTF_8);
+        String content = DigestUtils.sha256Hex(shared);
+        String random = UUID.randomUUID().toString();
+        put("/s/" + content, shared);
+        put("/s/" + random, "own".getBytes(StandardCharsets.UTF_8));
+        String manifest = "[{\"path\":\"s/" + content + "\"},{\"path\":\"s/" + random + "\"}]";
+        put("/c/big?multipart-manifest=put", manifest.getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(bulkService.deleteLargeObject("c", "big").isSuccess());
+        assertFalse(server.contains("/c/big"));
+        assertFalse(server.contains("/s/" + random));
+        assertTrue(server.contains("/s/" + content));//可能被其他对象引用
+    }
+
+    @Test
+    public void dedupDeleteOfPlainObject() throws Exception {
+        put("/c/small", "plain".getBytes(StandardCharsets.UTF_8));
+        assertTrue(bulkService.deleteLargeObject("c", "small").isSuccess());
+        assertFalse(server.contains("/c/small"));
+    }
+}
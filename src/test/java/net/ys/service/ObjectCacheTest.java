@@ -0,0 +1,123 @@
+package net.ys.service;
+
+import net.ys.bean.CachedObject;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ObjectCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UploadService uploadService;
+
+    private ObjectCache objectCache;
+
+    @Before
+    public void setUp() throws Exception {
+        uploadService = mock(UploadService.class);
+        objectCache = new ObjectCache();
+        ReflectionTestUtils.setField(objectCache, "enabled", true);
+        ReflectionTestUtils.setField(objectCache, "ttl", 60L);
+        ReflectionTestUtils.setField(objectCache, "memoryMaxBytes", 1000L);
+        ReflectionTestUtils.setField(objectCache, "memoryObjectMax", 100L);
+        ReflectionTestUtils.setField(objectCache, "diskDir", folder.getRoot().getAbsolutePath());
+        ReflectionTestUtils.setField(objectCache, "diskMaxBytes", 10000L);
+        ReflectionTestUtils.setField(objectCache, "diskObjectMax", 100000L);
+        ReflectionTestUtils.setField(objectCache, "uploadService", uploadService);
+        objectCache.init();
+    }
+
+    private void serve(String name, int length) throws Exception {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+        when(response.getEntity()).thenReturn(new ByteArrayEntity(new byte[length]));
+        when(response.getFirstHeader("Etag")).thenReturn(new BasicHeader("Etag", name));
+        when(uploadService.downloadIfNoneMatch(eq(name), any())).thenReturn(response);
+    }
+
+    @Test
+    public void objectLargerThanTierIsPassedThroughWithoutEvicting() throws Exception {
+        serve("a", 4000);
+        objectCache.get("a").close();
+        assertEquals(4000, objectCache.getDiskBytes());
+
+        serve("huge", 20000);//小于diskObjectMax,但超过磁盘层总容量
+        try (ObjectCache.Lookup lookup = objectCache.get("huge")) {
+            assertNull(lookup.getObject());
+            assertNotNull(lookup.getResponse());
+        }
+        assertEquals(4000, objectCache.getDiskBytes());
+        try (ObjectCache.Lookup lookup = objectCache.get("a")) {
+            assertNotNull(lookup.getObject());
+            assertTrue(lookup.getObject().getFile().exists());
+        }
+    }
+
+    @Test
+    public void newObjectIsNotEvictedByItsOwnInsert() throws Exception {
+        serve("a", 6000);
+        objectCache.get("a").close();
+        serve("b", 6000);
+        try (ObjectCache.Lookup lookup = objectCache.get("b")) {
+            assertTrue(lookup.getObject().getFile().exists());
+        }
+        assertEquals(6000, objectCache.getDiskBytes());
+        try (ObjectCache.Lookup lookup = objectCache.get("b")) {
+            assertTrue(lookup.getObject().getFile().exists());
+        }
+    }
+
+    @Test
+    public void fileBeingServedSurvivesEvictionAndRemove() throws Exception {
+        serve("a", 6000);
+        ObjectCache.Lookup lookup = objectCache.get("a");
+        CachedObject object = lookup.getObject();
+        File file = object.getFile();
+
+        serve("b", 6000);
+        objectCache.get("b").close();//淘汰a
+        objectCache.remove("a");
+        assertTrue(file.exists());
+        try (InputStream in = object.openStream()) {
+            assertEquals(6000, IOUtils.toByteArray(in).length);
+        }
+        lookup.close();
+        assertFalse(file.exists());
+        assertFalse(object.retain());
+    }
+
+    @Test
+    public void removeDeletesIdleFile() throws Exception {
+        serve("a", 6000);
+        File file;
+        try (ObjectCache.Lookup lookup = objectCache.get("a")) {
+            file = lookup.getObject().getFile();
+        }
+        objectCache.remove("a");
+        assertFalse(file.exists());
+        assertEquals(0, objectCache.getDiskBytes());
+    }
+}
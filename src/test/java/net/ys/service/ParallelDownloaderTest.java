@@ -0,0 +1,113 @@
+package net.ys.service;
+
+import net.ys.benchmark.FakeSwiftServer;
+import net.ys.bean.ObjectInfo;
+import net.ys.util.HttpClientPool;
+import net.ys.util.TokenManager;
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class ParallelDownloaderTest {
+
+    private static final int BUFFERS = 3;
+
+    private FakeSwiftServer server;
+
+    private HttpClientPool httpClientPool;
+
+    private TokenManager tokenManager;
+
+    private ParallelDownloader downloader;
+
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSwiftServer();
+        httpClientPool = new HttpClientPool(20, 10, 1000, 5000, 1000, 30000, 60000);
+        tokenManager = new TokenManager(httpClientPool, server.getAuthUrl(), "test:tester", "testing", 60000);
+
+        UploadService uploadService = new UploadService();
+        ReflectionTestUtils.setField(uploadService, "container", "c");
+        ReflectionTestUtils.setField(uploadService, "segContainer", "s");
+        ReflectionTestUtils.setField(uploadService, "verify", true);
+        ReflectionTestUtils.setField(uploadService, "tokenManager", tokenManager);
+        ReflectionTestUtils.setField(uploadService, "segmentCleaner", mock(SegmentCleaner.class));
+        data = new byte[6 * 1024 * 1024];
+        new Random(1).nextBytes(data);
+        uploadService.uploadEntity(new ByteArrayEntity(data), "c", "big.bin");
+
+        downloader = new ParallelDownloader();
+        ReflectionTestUtils.setField(downloader, "container", "c");
+        ReflectionTestUtils.setField(downloader, "partSize", 1);
+        ReflectionTestUtils.setField(downloader, "threads", 4);
+        ReflectionTestUtils.setField(downloader, "window", 4);
+        ReflectionTestUtils.setField(downloader, "maxBuffered", BUFFERS);
+        ReflectionTestUtils.setField(downloader, "retries", 0);
+        ReflectionTestUtils.setField(downloader, "verify", true);
+        ReflectionTestUtils.setField(downloader, "tokenManager", tokenManager);
+        downloader.init();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        downloader.destroy();
+        tokenManager.close();
+        httpClientPool.close();
+        server.stop();
+    }
+
+    private int awaitPermits() throws InterruptedException {
+        Semaphore buffers = (Semaphore) ReflectionTestUtils.getField(downloader, "buffers");
+        for (int i = 0; i < 50 && buffers.availablePermits() < BUFFERS; i++) {
+            Thread.sleep(100);
+        }
+        return buffers.availablePermits();
+    }
+
+    @Test
+    public void downloadWritesPartsInOrder() throws Exception {
+        ObjectInfo info = downloader.head("big.bin");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        downloader.download("big.bin", info, out);
+        assertArrayEquals(data, out.toByteArray());
+        assertEquals(BUFFERS, awaitPermits());
+    }
+
+    @Test
+    public void failedWriteReturnsEveryPermitOnce() throws Exception {
+        ObjectInfo info = downloader.head("big.bin");
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        try {
+            downloader.download("big.bin", info, out);
+            fail("write error swallowed");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertEquals(BUFFERS, awaitPermits());//既不少还也不多还
+    }
+}
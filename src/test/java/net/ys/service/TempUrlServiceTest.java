@@ -0,0 +1,166 @@
+package net.ys.service;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.ys.bean.TempUrl;
+import net.ys.benchmark.FakeSwiftServer;
+import net.ys.util.HttpClientPool;
+import net.ys.util.SwiftMetrics;
+import net.ys.util.TokenManager;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TempUrlServiceTest {
+
+    private FakeSwiftServer server;
+
+    private HttpClientPool httpClientPool;
+
+    private TokenManager tokenManager;
+
+    private UploadService uploadService;
+
+    private SegmentCleaner segmentCleaner;
+
+    private TempUrlService tempUrlService;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSwiftServer();
+        httpClientPool = new HttpClientPool(20, 10, 1000, 5000, 1000, 30000, 60000);
+        tokenManager = new TokenManager(httpClientPool, server.getAuthUrl(), "test:tester", "testing", 60000);
+        HttpPost post = new HttpPost();
+        post.setHeader("X-Account-Meta-Temp-URL-Key", "secret");
+        HttpClientPool.release(tokenManager.execute(SwiftMetrics.OP_CONTAINER, post, ""));
+
+        uploadService = mock(UploadService.class);
+        segmentCleaner = mock(SegmentCleaner.class);
+        when(segmentCleaner.deleteRemoteLater(anyString(), anyList(), anyLong())).thenReturn("task-1");
+        tempUrlService = new TempUrlService();
+        ReflectionTestUtils.setField(tempUrlService, "container", "c");
+        ReflectionTestUtils.setField(tempUrlService, "segContainer", "s");
+        ReflectionTestUtils.setField(tempUrlService, "configuredKey", "");
+        ReflectionTestUtils.setField(tempUrlService, "digest", "sha256");
+        ReflectionTestUtils.setField(tempUrlService, "defaultTtl", 3600L);
+        ReflectionTestUtils.setField(tempUrlService, "maxTtl", 86400L);
+        ReflectionTestUtils.setField(tempUrlService, "baseUrl", "");
+        ReflectionTestUtils.setField(tempUrlService, "keyRefresh", 300000L);
+        ReflectionTestUtils.setField(tempUrlService, "completeWindow", 3600000L);
+        ReflectionTestUtils.setField(tempUrlService, "tokenManager", tokenManager);
+        ReflectionTestUtils.setField(tempUrlService, "uploadService", uploadService);
+        ReflectionTestUtils.setField(tempUrlService, "segmentCleaner", segmentCleaner);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tokenManager.close();
+        httpClientPool.close();
+        server.stop();
+    }
+
+    private int put(String url, byte[] data) throws Exception {
+        HttpPut put = new HttpPut(url);
+        put.setEntity(new ByteArrayEntity(data));
+        try (CloseableHttpResponse response = httpClientPool.getClient().execute(put)) {
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    @Test
+    public void signedUrlsAllowDirectPutAndGet() throws Exception {
+        byte[] data = "direct upload".getBytes(StandardCharsets.UTF_8);
+        TempUrl upload = tempUrlService.uploadUrl("1.txt", 60);
+        assertEquals(201, put(upload.getUrl(), data));
+
+        TempUrl download = tempUrlService.downloadUrl("1.txt", 60);
+        try (CloseableHttpResponse response = httpClientPool.getClient().execute(new HttpGet(download.getUrl()))) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals("direct upload", EntityUtils.toString(response.getEntity()));
+        }
+    }
+
+    @Test
+    public void tamperedUrlsAreRejected() throws Exception {
+        TempUrl upload = tempUrlService.uploadUrl("1.txt", 60);
+        assertEquals(401, put(upload.getUrl().replace("/c/1.txt", "/c/2.txt"), new byte[1]));
+        String expires = String.valueOf(upload.getExpires());
+        assertEquals(401, put(upload.getUrl().replace(expires, String.valueOf(upload.getExpires() + 100)), new byte[1]));
+        try (CloseableHttpResponse response = httpClientPool.getClient().execute(new HttpGet(upload.getUrl()))) {//PUT签名不能用于GET
+            assertEquals(401, response.getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void ttlIsCappedAtMaxTtl() throws Exception {
+        TempUrl upload = tempUrlService.uploadUrl("1.txt", 10 * 86400);
+        assertTrue(upload.getExpires() <= System.currentTimeMillis() / 1000 + 86400);
+    }
+
+    @Test
+    public void completeWritesManifestForIssuedUpload() throws Exception {
+        List<TempUrl> urls = tempUrlService.segmentUrls("1.bin", "u-1", 2, 60);
+        verify(segmentCleaner).deleteRemoteLater(eq("s"), anyList(), anyLong());
+        for (TempUrl url : urls) {
+            assertEquals(201, put(url.getUrl(), new byte[10]));
+        }
+        when(uploadService.mergeManifest(eq("1.bin"), anyString())).thenReturn("\"etag\"");
+        JSONArray parts = new JSONArray();
+        for (int i = 0; i < 2; i++) {
+            JSONObject part = new JSONObject();
+            part.put("etag", "e" + i);
+            part.put("size", 10);
+            parts.add(part);
+        }
+        assertEquals("\"etag\"", tempUrlService.complete("1.bin", "u-1", parts));
+        verify(segmentCleaner).cancel("task-1");
+        try {
+            tempUrlService.complete("1.bin", "u-1", parts);
+            fail("completed twice");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void completeRejectsOtherObjectNames() throws Exception {
+        tempUrlService.segmentUrls("1.bin", "u-2", 1, 60);
+        JSONArray parts = JSONArray.fromObject("[{\"etag\":\"e\",\"size\":1}]");
+        try {
+            tempUrlService.complete("existing.bin", "u-2", parts);
+            fail("overwrote an object that was not issued");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            tempUrlService.complete("1.bin", "u-unknown", parts);
+            fail("accepted an unknown upload id");
+        } catch (IllegalArgumentException e) {
+        }
+        verify(uploadService, never()).mergeManifest(anyString(), anyString());
+        verify(segmentCleaner, never()).cancel(anyString());
+
+        when(uploadService.mergeManifest(eq("1.bin"), anyString())).thenReturn("\"etag\"");
+        assertEquals("\"etag\"", tempUrlService.complete("1.bin", "u-2", parts));//被拒绝的请求不影响签发的上传
+    }
+}
@@ -0,0 +1,83 @@
+package net.ys.service;
+
+import net.ys.bean.SegFile;
+import net.ys.bean.UploadSession;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class UploadJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UploadJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        journal = new UploadJournal();
+        ReflectionTestUtils.setField(journal, "journalDir", folder.getRoot().getAbsolutePath());
+        journal.init();
+    }
+
+    @Test
+    public void saveFromConcurrentSegmentsKeepsEveryETag() throws Exception {
+        int count = 64;
+        List<SegFile> segFiles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            segFiles.add(new SegFile(UUID.randomUUID().toString(), i, i * 1024L, 1024));
+        }
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), "/tmp/src.bin", count * 1024L, 0, "1.bin", segFiles);
+        journal.save(session);
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (SegFile segFile : segFiles) {//模拟SegmentUploader: 各分片完成后设置ETAG并保存
+            futures.add(executor.submit(() -> {
+                start.await();
+                segFile.setETag("etag-" + segFile.getIndex());
+                journal.save(session);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        UploadSession loaded = journal.load(session.getId());
+        assertNotNull(loaded);
+        assertEquals(count, loaded.getSegFiles().size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("etag-" + i, loaded.getSegFiles().get(i).getETag());
+        }
+        assertEquals(count, loaded.getUploadedCount());
+    }
+
+    @Test
+    public void removeDeletesSession() throws Exception {
+        List<SegFile> segFiles = new ArrayList<>();
+        segFiles.add(new SegFile(UUID.randomUUID().toString(), 0, 0, 10));
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), "/tmp/src.bin", 10, 0, "1.bin", segFiles);
+        journal.save(session);
+        assertEquals(1, journal.list().size());
+        journal.remove(session.getId());
+        assertNull(journal.load(session.getId()));
+    }
+}
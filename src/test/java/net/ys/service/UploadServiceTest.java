@@ -0,0 +1,88 @@
+package net.ys.service;
+
+import net.ys.benchmark.FakeSwiftServer;
+import net.ys.util.HttpClientPool;
+import net.ys.util.Md5Util;
+import net.ys.util.TokenManager;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class UploadServiceTest {
+
+    private FakeSwiftServer server;
+
+    private HttpClientPool httpClientPool;
+
+    private TokenManager tokenManager;
+
+    private UploadService uploadService;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSwiftServer();
+        httpClientPool = new HttpClientPool(20, 10, 1000, 5000, 1000, 30000, 60000);
+        tokenManager = new TokenManager(httpClientPool, server.getAuthUrl(), "test:tester", "testing", 60000);
+        uploadService = new UploadService();
+        ReflectionTestUtils.setField(uploadService, "container", "c");
+        ReflectionTestUtils.setField(uploadService, "segContainer", "s");
+        ReflectionTestUtils.setField(uploadService, "verify", true);
+        ReflectionTestUtils.setField(uploadService, "tokenManager", tokenManager);
+        ReflectionTestUtils.setField(uploadService, "segmentCleaner", mock(SegmentCleaner.class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tokenManager.close();
+        httpClientPool.close();
+        server.stop();
+    }
+
+    @Test
+    public void etagMismatchDeletesStoredObject() throws Exception {
+        byte[] data = "corrupted in transit".getBytes(StandardCharsets.UTF_8);
+        server.corruptPuts(1);
+        try {
+            uploadService.uploadEntity(new ByteArrayEntity(data), "c", "1.txt");
+            fail("etag mismatch not detected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("etag mismatch"));
+        }
+        assertFalse(server.contains("/c/1.txt"));
+
+        assertNotNull(uploadService.uploadEntity(new ByteArrayEntity(data), "c", "1.txt"));
+        assertTrue(server.contains("/c/1.txt"));
+    }
+
+    @Test
+    public void namesWithReservedCharactersRoundTrip() throws Exception {
+        String name = "dir/a b?c#d%e+f.txt";
+        byte[] data = "reserved".getBytes(StandardCharsets.UTF_8);
+        assertNotNull(uploadService.uploadEntity(new ByteArrayEntity(data), "c", name));
+        assertTrue(server.contains("/c/" + name));
+        assertEquals(Md5Util.strip(uploadService.headETag("c", name)), DigestUtils.md5Hex(data));
+        CloseableHttpResponse response = uploadService.download(name, null, null);
+        try {
+            assertEquals("reserved", EntityUtils.toString(response.getEntity()));
+        } finally {
+            HttpClientPool.release(response);
+        }
+        assertTrue(uploadService.deleteFile("c", name));
+        assertFalse(server.contains("/c/" + name));
+    }
+}
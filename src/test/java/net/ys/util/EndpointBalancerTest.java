@@ -0,0 +1,204 @@
+package net.ys.util;
+
+import net.ys.benchmark.FakeSwiftServer;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointBalancerTest {
+
+    private HttpClientPool httpClientPool;
+
+    private final List<FakeSwiftServer> servers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        httpClientPool = new HttpClientPool(20, 10, 1000, 5000, 1000, 30000, 60000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (FakeSwiftServer server : servers) {
+            server.stop();
+        }
+        httpClientPool.close();
+    }
+
+    private EndpointBalancer balancer(int failThreshold, long downTime) {
+        return new EndpointBalancer(Arrays.asList("http://10.0.0.1:8080", "http://10.0.0.2:8080", "http://10.0.0.3:8080"), httpClientPool, failThreshold, downTime);
+    }
+
+    private static BasicHttpResponse response(int code) {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, code, null);
+    }
+
+    @Test
+    public void selectPrefersFewestOutstanding() {
+        EndpointBalancer balancer = balancer(3, 10000);
+        List<EndpointBalancer.Endpoint> endpoints = balancer.getEndpoints();
+        balancer.begin(endpoints.get(0));
+        balancer.begin(endpoints.get(0));
+        balancer.begin(endpoints.get(1));
+        assertSame(endpoints.get(2), balancer.select(Collections.emptyList()));
+    }
+
+    @Test
+    public void selectSkipsTriedEndpoints() {
+        EndpointBalancer balancer = balancer(3, 10000);
+        List<EndpointBalancer.Endpoint> endpoints = balancer.getEndpoints();
+        List<EndpointBalancer.Endpoint> tried = new ArrayList<>(endpoints.subList(0, 2));
+        assertSame(endpoints.get(2), balancer.select(tried));
+        tried.add(endpoints.get(2));
+        assertNull(balancer.select(tried));
+    }
+
+    @Test
+    public void gatewayErrorsMarkEndpointDownAfterThreshold() {
+        EndpointBalancer balancer = balancer(2, 10000);
+        EndpointBalancer.Endpoint endpoint = balancer.getEndpoints().get(0);
+        assertFalse(balancer.complete(endpoint, balancer.begin(endpoint), response(503)));
+        assertTrue(endpoint.isUp());
+        assertFalse(balancer.complete(endpoint, balancer.begin(endpoint), response(502)));
+        assertFalse(endpoint.isUp());
+        for (int i = 0; i < 10; i++) {
+            assertFalse(endpoint == balancer.select(Collections.emptyList()));
+        }
+    }
+
+    @Test
+    public void successResetsFailures() {
+        EndpointBalancer balancer = balancer(2, 10000);
+        EndpointBalancer.Endpoint endpoint = balancer.getEndpoints().get(0);
+        balancer.begin(endpoint);
+        balancer.fail(endpoint, true);
+        assertTrue(balancer.complete(endpoint, balancer.begin(endpoint), response(404)));
+        balancer.begin(endpoint);
+        balancer.fail(endpoint, true);
+        assertTrue(endpoint.isUp());
+    }
+
+    @Test
+    public void interruptedRequestIsNotCountedAsFailure() {
+        EndpointBalancer balancer = balancer(1, 10000);
+        EndpointBalancer.Endpoint endpoint = balancer.getEndpoints().get(0);
+        balancer.begin(endpoint);
+        balancer.fail(endpoint, false);
+        assertTrue(endpoint.isUp());
+        assertEquals(0, endpoint.getOutstanding());
+    }
+
+    @Test
+    public void downEndpointReturnsAfterDownTime() throws Exception {
+        EndpointBalancer balancer = balancer(1, 100);
+        EndpointBalancer.Endpoint endpoint = balancer.getEndpoints().get(0);
+        balancer.begin(endpoint);
+        balancer.fail(endpoint, true);
+        assertFalse(endpoint.isUp());
+        Thread.sleep(150);
+        assertTrue(endpoint.isUp());
+    }
+
+    @Test
+    public void selectFallsBackWhenAllDown() {
+        EndpointBalancer balancer = balancer(1, 10000);
+        for (EndpointBalancer.Endpoint endpoint : balancer.getEndpoints()) {
+            balancer.begin(endpoint);
+            balancer.fail(endpoint, true);
+        }
+        assertNotNull(balancer.select(Collections.emptyList()));
+    }
+
+    @Test
+    public void createNeedsTwoDistinctEndpoints() {
+        assertNull(EndpointBalancer.create("http://a:8080/auth/v1.0,http://a:8080/auth/v2.0", "", httpClientPool, 3, 10000));
+        EndpointBalancer balancer = EndpointBalancer.create("http://a:8080/auth/v1.0", "http://a:8080, http://b:8080", httpClientPool, 3, 10000);
+        assertNotNull(balancer);
+        assertEquals("http://b:8080/v1/AUTH_x", balancer.storageUrl(balancer.getEndpoints().get(1), "http://a:8080/v1/AUTH_x"));
+    }
+
+    private TokenManager cluster(int nodes) throws Exception {
+        FakeSwiftServer first = new FakeSwiftServer();
+        servers.add(first);
+        StringBuilder urls = new StringBuilder(first.getAuthUrl());
+        for (int i = 1; i < nodes; i++) {
+            FakeSwiftServer node = new FakeSwiftServer(first);
+            servers.add(node);
+            urls.append(',').append(node.getAuthUrl());
+        }
+        TokenManager tokenManager = new TokenManager(httpClientPool, urls.toString(), "test:tester", "testing", 60000);
+        tokenManager.setBalancer(EndpointBalancer.create(urls.toString(), "", httpClientPool, 1, 10000));
+        return tokenManager;
+    }
+
+    private static void put(TokenManager tokenManager, String path, byte[] data) throws Exception {
+        HttpPut put = new HttpPut();
+        put.setEntity(new ByteArrayEntity(data));
+        HttpClientPool.release(tokenManager.execute(SwiftMetrics.OP_UPLOAD, put, path));
+    }
+
+    @Test
+    public void closingResponseWithoutReadingEntityReleasesOutstanding() throws Exception {
+        TokenManager tokenManager = cluster(2);
+        put(tokenManager, "/c/big", new byte[1 << 20]);
+        for (int i = 0; i < 10; i++) {//如ObjectCache丢弃不缓存的响应
+            CloseableHttpResponse response = tokenManager.execute(SwiftMetrics.OP_DOWNLOAD, new HttpGet(), "/c/big");
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            response.close();
+        }
+        CloseableHttpResponse response = tokenManager.execute(SwiftMetrics.OP_DOWNLOAD, new HttpGet(), "/c/big");
+        assertEquals(1 << 20, EntityUtils.toByteArray(response.getEntity()).length);
+        response.close();
+        for (EndpointBalancer.Endpoint endpoint : tokenManager.getBalancer().getEndpoints()) {
+            assertEquals(0, endpoint.getOutstanding());
+        }
+        tokenManager.close();
+    }
+
+    @Test
+    public void requestsFailOverToHealthyNode() throws Exception {
+        TokenManager tokenManager = cluster(3);
+        put(tokenManager, "/c/a", "hello".getBytes());
+        servers.get(1).stop();
+        for (int i = 0; i < 10; i++) {
+            CloseableHttpResponse response = tokenManager.execute(SwiftMetrics.OP_DOWNLOAD, new HttpGet(), "/c/a");
+            assertEquals("hello", EntityUtils.toString(response.getEntity()));
+            HttpClientPool.release(response);
+        }
+        assertFalse(tokenManager.getBalancer().getEndpoints().get(1).isUp());
+        tokenManager.close();
+    }
+
+    @Test
+    public void healthCheckMarksStoppedNodeDown() throws Exception {
+        TokenManager tokenManager = cluster(2);
+        EndpointBalancer balancer = tokenManager.getBalancer();
+        balancer.startHealthCheck(50);
+        servers.get(1).stop();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (balancer.getEndpoints().get(1).isUp() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(balancer.getEndpoints().get(1).isUp());
+        assertTrue(balancer.getEndpoints().get(0).isUp());
+        tokenManager.close();
+    }
+}
@@ -0,0 +1,155 @@
+package net.ys.util;
+
+import net.ys.bean.SegFile;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FastCdcTest {
+
+    private static final int MIN = 2 * 1024;
+
+    private static final int AVG = 8 * 1024;
+
+    private static final int MAX = 32 * 1024;
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 每次最多返回n个字节,模拟网络流的短读
+     */
+    private static InputStream shortReads(byte[] data, int n) {
+        return new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, n));
+            }
+        };
+    }
+
+    /**
+     * 分片首尾相接覆盖全部数据,内容名为分片的SHA-256
+     */
+    private static void assertCovers(byte[] data, List<SegFile> segFiles) {
+        long offset = 0;
+        for (int i = 0; i < segFiles.size(); i++) {
+            SegFile segFile = segFiles.get(i);
+            assertEquals(i, segFile.getIndex());
+            assertEquals(offset, segFile.getStartPoint());
+            byte[] segment = Arrays.copyOfRange(data, (int) offset, (int) (offset + segFile.getLength()));
+            assertEquals(DigestUtils.sha256Hex(segment), segFile.getTempName());
+            offset += segFile.getLength();
+        }
+        assertEquals(data.length, offset);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMinAboveAvg() {
+        new FastCdc(AVG * 2, AVG, MAX);
+    }
+
+    @Test
+    public void segmentSizesStayWithinBounds() throws Exception {
+        byte[] data = random(4 * 1024 * 1024, 1);
+        List<SegFile> segFiles = new FastCdc(MIN, AVG, MAX).split(new ByteArrayInputStream(data), true);
+        assertCovers(data, segFiles);
+        for (int i = 0; i < segFiles.size() - 1; i++) {//最后一片可以小于最小长度
+            long length = segFiles.get(i).getLength();
+            assertTrue("segment " + i + ": " + length, length >= MIN && length <= MAX);
+        }
+        long avg = data.length / segFiles.size();
+        assertTrue("average " + avg, avg >= AVG / 2 && avg <= AVG * 2);
+    }
+
+    @Test
+    public void zeroEntropyDataCutsAtMaxSize() throws Exception {
+        byte[] data = new byte[MAX * 3];
+        List<SegFile> segFiles = new FastCdc(MIN, AVG, MAX).split(new ByteArrayInputStream(data), false);
+        assertEquals(3, segFiles.size());
+        for (SegFile segFile : segFiles) {
+            assertEquals(MAX, segFile.getLength());
+            assertFalse(FastCdc.isContentName(segFile.getTempName()));
+        }
+    }
+
+    @Test
+    public void emptyStreamYieldsOneEmptySegment() throws Exception {
+        List<SegFile> segFiles = new FastCdc(MIN, AVG, MAX).split(new ByteArrayInputStream(new byte[0]), true);
+        assertEquals(1, segFiles.size());
+        assertEquals(0, segFiles.get(0).getLength());
+        assertEquals(DigestUtils.sha256Hex(new byte[0]), segFiles.get(0).getTempName());
+    }
+
+    @Test
+    public void cutAtBufferBoundary() throws Exception {
+        int size = 64 * 1024;//与读取缓冲区同长,每个切分点都落在缓冲区末尾
+        byte[] data = random(size * 3, 2);
+        List<SegFile> segFiles = new FastCdc(size, size, size).split(new ByteArrayInputStream(data), true);
+        assertEquals(3, segFiles.size());
+        assertCovers(data, segFiles);
+    }
+
+    @Test
+    public void cutPointsDoNotDependOnReadSizes() throws Exception {
+        byte[] data = random(1024 * 1024, 3);
+        FastCdc fastCdc = new FastCdc(MIN, AVG, MAX);
+        List<SegFile> whole = fastCdc.split(new ByteArrayInputStream(data), true);
+        for (int n : new int[]{1, 1000, MIN, MIN + 1, 64 * 1024 - 1}) {
+            List<SegFile> segFiles = fastCdc.split(shortReads(data, n), true);
+            assertEquals(whole.size(), segFiles.size());
+            for (int i = 0; i < whole.size(); i++) {
+                assertEquals(whole.get(i).getTempName(), segFiles.get(i).getTempName());
+                assertEquals(whole.get(i).getLength(), segFiles.get(i).getLength());
+            }
+        }
+    }
+
+    @Test
+    public void insertOnlyChangesNearbySegments() throws Exception {
+        byte[] data = random(4 * 1024 * 1024, 4);
+        byte[] shifted = new byte[data.length + 1];
+        int at = data.length / 2;
+        System.arraycopy(data, 0, shifted, 0, at);
+        shifted[at] = 42;
+        System.arraycopy(data, at, shifted, at + 1, data.length - at);
+
+        FastCdc fastCdc = new FastCdc(MIN, AVG, MAX);
+        Set<String> names = new HashSet<>();
+        for (SegFile segFile : fastCdc.split(new ByteArrayInputStream(data), true)) {
+            names.add(segFile.getTempName());
+        }
+        List<SegFile> after = fastCdc.split(new ByteArrayInputStream(shifted), true);
+        assertCovers(shifted, after);
+        int changed = 0;
+        for (SegFile segFile : after) {
+            if (!names.contains(segFile.getTempName())) {
+                changed++;
+            }
+        }
+        assertTrue("changed " + changed + "/" + after.size(), changed >= 1 && changed <= 3);
+    }
+
+    @Test
+    public void contentNames() {
+        assertTrue(FastCdc.isContentName(DigestUtils.sha256Hex("a")));
+        assertFalse(FastCdc.isContentName("0a1b-uuid"));
+        assertFalse(FastCdc.isContentName(null));
+    }
+}
@@ -0,0 +1,55 @@
+package net.ys.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GzipCompressingInputStreamTest {
+
+    @Test
+    public void outputIsValidGzip() throws Exception {
+        byte[] data = new byte[300 * 1024];
+        new Random(1).nextBytes(data);
+        for (int i = 0; i < data.length; i += 2) {//一半可压缩
+            data[i] = 'a';
+        }
+        try (InputStream in = new GZIPInputStream(new GzipCompressingInputStream(new ByteArrayInputStream(data), 6))) {
+            assertArrayEquals(data, IOUtils.toByteArray(in));
+        }
+    }
+
+    @Test
+    public void closeEndsDeflaterWhenSourceCloseFails() throws Exception {
+        boolean[] closed = new boolean[1];
+        InputStream source = new FilterInputStream(new ByteArrayInputStream(new byte[1024])) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                throw new IOException("close failed");
+            }
+        };
+        GzipCompressingInputStream in = new GzipCompressingInputStream(source, 6);
+        in.read(new byte[16]);
+        try {
+            in.close();
+            fail("source close error swallowed");
+        } catch (IOException e) {
+        }
+        assertTrue(closed[0]);
+        try {
+            IOUtils.toByteArray(in);
+            fail("deflater not ended");
+        } catch (RuntimeException e) {//Deflater已释放
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package net.ys.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TokenBucketTest {
+
+    private static long elapsed(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateMustBePositive() {
+        new TokenBucket(0);
+    }
+
+    @Test
+    public void initialBurstDoesNotWait() throws Exception {
+        TokenBucket bucket = new TokenBucket(10000);
+        long start = System.nanoTime();
+        bucket.acquire(10000);
+        assertTrue(elapsed(start) < 100);
+    }
+
+    @Test
+    public void largeAcquireWaitsForDebt() throws Exception {
+        TokenBucket bucket = new TokenBucket(10000);
+        bucket.acquire(10000);//用完初始令牌
+        long start = System.nanoTime();
+        bucket.acquire(5000);//超过剩余令牌的部分记为欠账,约0.5秒
+        long wait = elapsed(start);
+        assertTrue("waited " + wait, wait >= 400 && wait < 1500);
+    }
+
+    @Test
+    public void tokensAccumulateAtMostOneSecond() throws Exception {
+        TokenBucket bucket = new TokenBucket(10000);
+        Thread.sleep(300);
+        long start = System.nanoTime();
+        bucket.acquire(15000);//空闲后仍只有1秒的令牌
+        long wait = elapsed(start);
+        assertTrue("waited " + wait, wait >= 400 && wait < 1500);
+    }
+
+    @Test
+    public void throttledStreamsKeepDataAndAverageRate() throws Exception {
+        byte[] data = new byte[30000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        TokenBucket bucket = new TokenBucket(20000);
+        long start = System.nanoTime();
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        try (InputStream in = TokenBucket.throttle(new ByteArrayInputStream(data), bucket, null)) {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                copy.write(buffer, 0, n);
+            }
+        }
+        long wait = elapsed(start);//初始2万令牌,剩余1万按2万/秒约0.5秒
+        assertTrue("waited " + wait, wait >= 400 && wait < 1500);
+        assertArrayEquals(data, copy.toByteArray());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        try (OutputStream out = TokenBucket.throttle(written, new TokenBucket(1000000))) {
+            out.write(data, 0, 100);
+            out.write(data[100]);
+        }
+        assertEquals(101, written.size());
+    }
+
+    @Test
+    public void bucketsAreSharedAcrossStreams() throws Exception {
+        TokenBucket bucket = new TokenBucket(10000);
+        bucket.acquire(10000);
+        long start = System.nanoTime();
+        TokenBucket.throttle(new ByteArrayInputStream(new byte[2500]), bucket).read(new byte[2500]);
+        TokenBucket.throttle(new ByteArrayInputStream(new byte[2500]), bucket).read(new byte[2500]);
+        long wait = elapsed(start);
+        assertTrue("waited " + wait, wait >= 400 && wait < 1500);
+    }
+
+    @Test
+    public void interruptStopsWaiting() throws Exception {
+        TokenBucket bucket = new TokenBucket(1000);
+        bucket.acquire(1000);
+        Thread.currentThread().interrupt();
+        try {
+            bucket.acquire(60000);
+            fail("not interrupted");
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.ys.util;
+
+import net.ys.bean.AuthToken;
+import net.ys.benchmark.FakeSwiftServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TokenManagerTest {
+
+    private FakeSwiftServer server;
+
+    private HttpClientPool httpClientPool;
+
+    private TokenManager tokenManager;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSwiftServer();
+        httpClientPool = new HttpClientPool(20, 10, 1000, 5000, 1000, 30000, 60000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (tokenManager != null) {
+            tokenManager.close();
+        }
+        httpClientPool.close();
+        server.stop();
+    }
+
+    @Test
+    public void concurrentCallersShareOneToken() throws Exception {
+        tokenManager = new TokenManager(httpClientPool, server.getAuthUrl(), "test:tester", "testing", 60000);
+        AuthToken token = tokenManager.getToken();
+        assertSame(token, tokenManager.getToken());
+        assertSame(token, tokenManager.refresh(null));//其他调用方已刷新
+        assertEquals(1, server.getAuthCount());
+    }
+
+    @Test
+    public void refreshReplacesStaleToken() throws Exception {
+        tokenManager = new TokenManager(httpClientPool, server.getAuthUrl(), "test:tester", "testing", 60000);
+        AuthToken token = tokenManager.getToken();
+        assertNotSame(token, tokenManager.refresh(token));
+        assertEquals(2, server.getAuthCount());
+    }
+
+    @Test
+    public void shortLivedTokenDoesNotRefreshInLoop() throws Exception {
+        server.setTokenExpires(2);//有效期短于refreshBefore
+        tokenManager = new TokenManager(httpClientPool, server.getAuthUrl(), "test:tester", "testing", 60000);
+        tokenManager.getToken();
+        Thread.sleep(1000);
+        assertEquals(1, server.getAuthCount());
+    }
+}